@@ -0,0 +1,131 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates a local repository laid out like <code>src/test/resources/MavenClasspathWidget/repository</code>, with
+ * a project POM on top of it. Artifacts are spread over a number of levels; each artifact depends on a few artifacts
+ * of the next level, so the transitive graph is as deep as there are levels and every artifact is reachable.
+ */
+class LocalRepositoryGenerator {
+
+    static final String GROUP_ID = "fitnesse.benchmark";
+    private static final int DEPENDENCIES_PER_ARTIFACT = 3;
+
+    private final File baseDir;
+    private final int artifacts;
+    private final int levels;
+
+    LocalRepositoryGenerator(File baseDir, int artifacts, int levels) {
+        this.baseDir = baseDir;
+        this.artifacts = artifacts;
+        this.levels = Math.max(1, Math.min(levels, artifacts));
+    }
+
+    File getRepository() {
+        return new File(baseDir, "repository");
+    }
+
+    File getPomFile() {
+        return new File(baseDir, "pom.xml");
+    }
+
+    File getSettingsFile() {
+        return new File(baseDir, "settings.xml");
+    }
+
+    /**
+     * Write the repository, the project POM and a settings file that points to the repository and keeps Maven
+     * offline.
+     */
+    void generate() throws IOException {
+        for (int level = 0; level < levels; level++) {
+            for (int i = 0; i < levelSize(level); i++) {
+                StringBuilder dependencies = new StringBuilder();
+                if (level + 1 < levels) {
+                    for (int k = 0; k < DEPENDENCIES_PER_ARTIFACT; k++) {
+                        dependency(dependencies, artifactId(level + 1, (i * DEPENDENCIES_PER_ARTIFACT + k) % levelSize(level + 1)), null);
+                    }
+                }
+                writeArtifact(artifactId(level, i), dependencies);
+            }
+        }
+
+        StringBuilder dependencies = new StringBuilder();
+        for (int i = 0; i < levelSize(0); i++) {
+            dependency(dependencies, artifactId(0, i), i % 2 == 0 ? "test" : null);
+        }
+        write(getPomFile(), pom("benchmark-project", dependencies));
+        write(getSettingsFile(), "<settings>\n"
+                + "  <localRepository>" + getRepository().getAbsolutePath() + "</localRepository>\n"
+                + "  <offline>true</offline>\n"
+                + "</settings>\n");
+    }
+
+    void delete() {
+        delete(baseDir);
+    }
+
+    private int levelSize(int level) {
+        int perLevel = artifacts / levels;
+        // The last level takes the remainder
+        return level == levels - 1 ? artifacts - perLevel * (levels - 1) : perLevel;
+    }
+
+    private static String artifactId(int level, int index) {
+        return "artifact-" + level + "-" + index;
+    }
+
+    private void writeArtifact(String artifactId, StringBuilder dependencies) throws IOException {
+        File dir = new File(getRepository(), GROUP_ID.replace('.', '/') + "/" + artifactId + "/1.0");
+        if (!dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        write(new File(dir, artifactId + "-1.0.pom"), pom(artifactId, dependencies));
+        JarOutputStream jar = new JarOutputStream(new FileOutputStream(new File(dir, artifactId + "-1.0.jar")), new Manifest());
+        jar.close();
+    }
+
+    private static void dependency(StringBuilder dependencies, String artifactId, String scope) {
+        dependencies.append("    <dependency><groupId>").append(GROUP_ID).append("</groupId><artifactId>")
+                .append(artifactId).append("</artifactId><version>1.0</version>");
+        if (scope != null) {
+            dependencies.append("<scope>").append(scope).append("</scope>");
+        }
+        dependencies.append("</dependency>\n");
+    }
+
+    private static String pom(String artifactId, StringBuilder dependencies) {
+        return "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n"
+                + "  <modelVersion>4.0.0</modelVersion>\n"
+                + "  <groupId>" + GROUP_ID + "</groupId>\n"
+                + "  <artifactId>" + artifactId + "</artifactId>\n"
+                + "  <version>1.0</version>\n"
+                + "  <dependencies>\n" + dependencies + "  </dependencies>\n"
+                + "</project>\n";
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
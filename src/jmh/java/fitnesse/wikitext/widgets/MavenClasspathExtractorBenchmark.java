@@ -0,0 +1,128 @@
+package fitnesse.wikitext.widgets;
+
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolution cost of {@link MavenClasspathExtractor} against generated local repositories of increasing size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MavenClasspathExtractorBenchmark {
+
+    @Param({"20", "200", "2000"})
+    public int artifacts;
+
+    @Param({"8"})
+    public int depth;
+
+    private LocalRepositoryGenerator repository;
+    private String originalUserSettings;
+    private MavenClasspathExtractor extractor;
+    private File pomFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new LocalRepositoryGenerator(createTempDir(), artifacts, depth);
+        repository.generate();
+        pomFile = repository.getPomFile();
+        originalUserSettings = System.getProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+        System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, repository.getSettingsFile().getPath());
+
+        extractor = new MavenClasspathExtractor(new ClasspathMetrics());
+        List<String> classpath = extractor.extractClasspathEntries(pomFile);
+        // All generated artifacts plus the test output directories
+        if (classpath.size() < artifacts) {
+            throw new IllegalStateException("Only " + classpath.size() + " of " + artifacts + " artifacts resolved");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (originalUserSettings != null) {
+            System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, originalUserSettings);
+        } else {
+            System.clearProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+        }
+        repository.delete();
+    }
+
+    /**
+     * First resolution in a fresh JVM: includes starting the Plexus container and reading the settings.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(5)
+    public List<String> coldExtractClasspathEntries() throws Exception {
+        return new MavenClasspathExtractor(new ClasspathMetrics()).extractClasspathEntries(pomFile);
+    }
+
+    @Benchmark
+    public List<String> warmExtractClasspathEntries() throws MavenClasspathExtractionException {
+        return extractor.extractClasspathEntries(pomFile);
+    }
+
+    /**
+     * Same as {@link #coldExtractClasspathEntries()}, reading the POM without the project builder.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(5)
+    public List<String> coldExtractClasspathEntriesLightweight() throws Exception {
+        return new MavenClasspathExtractor(new ClasspathMetrics()).resolveClasspathLightweight(pomFile, false).getElements("test");
+    }
+
+    @Benchmark
+    public List<String> warmExtractClasspathEntriesLightweight() throws MavenClasspathExtractionException {
+        return extractor.resolveClasspathLightweight(pomFile, false).getElements("test");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public MavenExecutionRequest mavenConfiguration() throws MavenClasspathExtractionException {
+        return extractor.mavenConfiguration();
+    }
+
+    /**
+     * Resolutions of the same POM by many threads at once, on one extractor.
+     */
+    @Benchmark
+    @Threads(8)
+    public List<String> contendedExtractClasspathEntries() throws MavenClasspathExtractionException {
+        return extractor.extractClasspathEntries(pomFile);
+    }
+
+    static File createTempDir() throws IOException {
+        File dir = File.createTempFile("maven-classpath-benchmark", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        return dir;
+    }
+}
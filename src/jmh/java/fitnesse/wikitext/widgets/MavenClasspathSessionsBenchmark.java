@@ -0,0 +1,118 @@
+package fitnesse.wikitext.widgets;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of {@link MavenClasspathExtractor} resolving independent POMs on eight threads, by the number of
+ * extractor sessions. Every thread resolves a POM of its own, in a directory of its own, against one generated local
+ * repository.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class MavenClasspathSessionsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Extractor {
+
+        @Param({"1", "2", "4", "8"})
+        public int sessions;
+
+        @Param({"200"})
+        public int artifacts;
+
+        private LocalRepositoryGenerator repository;
+        private String originalUserSettings;
+        private MavenClasspathExtractor extractor;
+        private final AtomicInteger projects = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            repository = new LocalRepositoryGenerator(MavenClasspathExtractorBenchmark.createTempDir(), artifacts, 8);
+            repository.generate();
+            originalUserSettings = System.getProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+            System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, repository.getSettingsFile().getPath());
+            extractor = new MavenClasspathExtractor(new ClasspathMetrics(), sessions);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (originalUserSettings != null) {
+                System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, originalUserSettings);
+            } else {
+                System.clearProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+            }
+            repository.delete();
+        }
+
+        File newProject() throws IOException {
+            File dir = new File(repository.getPomFile().getParentFile(), "project-" + projects.incrementAndGet());
+            if (!dir.mkdir()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            File pomFile = new File(dir, "pom.xml");
+            copy(repository.getPomFile(), pomFile);
+            return pomFile;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Project {
+
+        private File pomFile;
+
+        @Setup(Level.Trial)
+        public void setUp(Extractor extractor) throws IOException {
+            pomFile = extractor.newProject();
+        }
+    }
+
+    @Benchmark
+    public List<String> extractClasspathEntries(Extractor extractor, Project project) throws MavenClasspathExtractionException {
+        return extractor.extractor.extractClasspathEntries(project.pomFile);
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
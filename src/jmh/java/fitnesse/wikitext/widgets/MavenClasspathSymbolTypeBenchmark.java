@@ -0,0 +1,135 @@
+package fitnesse.wikitext.widgets;
+
+import fitnesse.wiki.PageData;
+import fitnesse.wiki.WikiPage;
+import fitnesse.wiki.WikitextPage;
+import fitnesse.wiki.fs.InMemoryPage;
+import fitnesse.wikitext.parser.HtmlTranslator;
+import fitnesse.wikitext.parser.Symbol;
+import fitnesse.wikitext.parser.SymbolProvider;
+import fitnesse.wikitext.parser.SymbolTreeWalker;
+import fitnesse.wikitext.parser.Translator;
+import fitnesse.wikitext.parser.WikiSourcePage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rendering a <code>!pomFile</code> symbol and of looking up its paths, once the classpath is cached.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MavenClasspathSymbolTypeBenchmark {
+
+    private static boolean symbolTypeRegistered;
+
+    @Param({"20", "200", "2000"})
+    public int artifacts;
+
+    @Param({"8"})
+    public int depth;
+
+    private LocalRepositoryGenerator repository;
+    private String originalUserSettings;
+    private MavenClasspathSymbolType symbolType;
+    private Translator translator;
+    private Symbol symbol;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new LocalRepositoryGenerator(MavenClasspathExtractorBenchmark.createTempDir(), artifacts, depth);
+        repository.generate();
+        originalUserSettings = System.getProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+        System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, repository.getSettingsFile().getPath());
+
+        // Parameter sets run one after the other in the same JVM; the first symbol type added gets all symbols
+        if (!symbolTypeRegistered) {
+            SymbolProvider.wikiParsingProvider.add(new MavenClasspathSymbolType());
+            symbolTypeRegistered = true;
+        }
+        WikiPage page = InMemoryPage.makeRoot("RooT");
+        PageData pageData = page.getData();
+        pageData.setContent("!pomFile " + repository.getPomFile().getPath() + "\n");
+        page.commit(pageData);
+        findSymbol(page);
+
+        // Fill the cache
+        providePaths();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (originalUserSettings != null) {
+            System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, originalUserSettings);
+        } else {
+            System.clearProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+        }
+        repository.delete();
+    }
+
+    @Benchmark
+    public String toTarget() {
+        return symbolType.toTarget(translator, symbol);
+    }
+
+    @Benchmark
+    public Collection<String> providePaths() {
+        return symbolType.providePaths(translator, symbol);
+    }
+
+    /**
+     * Page views of many threads at once, all served from the cache.
+     */
+    @Benchmark
+    @Threads(8)
+    public String contendedToTarget() {
+        return symbolType.toTarget(translator, symbol);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Collection<String> contendedProvidePaths() {
+        return symbolType.providePaths(translator, symbol);
+    }
+
+    private void findSymbol(WikiPage page) {
+        WikitextPage wikitextPage = (WikitextPage) page;
+        translator = new HtmlTranslator(new WikiSourcePage(page), wikitextPage.getParsingPage());
+        wikitextPage.getSyntaxTree().walkPreOrder(new SymbolTreeWalker() {
+            @Override
+            public boolean visit(Symbol node) {
+                if (symbol == null && node.getType() instanceof MavenClasspathSymbolType) {
+                    symbol = node;
+                    symbolType = (MavenClasspathSymbolType) node.getType();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean visitChildren(Symbol node) {
+                return true;
+            }
+        });
+        if (symbol == null) {
+            throw new IllegalStateException("No !pomFile symbol found");
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares class loaders between users of the same classpath, e.g. in-process test systems running suites that use the
+ * same POM. Jars are opened, and classes loaded, once for all of them.
+ * <p>
+ * Class loaders are reference counted through {@link Lease}s. A few unused ones are kept around for the next suite;
+ * a class loader is replaced as soon as one of its jars changes, and closed once its last lease is released.
+ */
+public class ClassLoaderCache {
+
+    private static final Logger LOG = Logger.getLogger(ClassLoaderCache.class.getName());
+
+    private final boolean indexJars;
+    private final int maximumIdle;
+    private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    /**
+     * @param indexJars   index the jars up front, see {@link IndexedClassLoader}.
+     * @param maximumIdle number of class loaders without leases to keep.
+     */
+    public ClassLoaderCache(boolean indexJars, int maximumIdle) {
+        this.indexJars = indexJars;
+        this.maximumIdle = maximumIdle;
+    }
+
+    /**
+     * Get a class loader for a scope of a classpath. Release the lease when done with the class loader.
+     */
+    public Lease acquire(ResolvedClasspath classpath, String scope, ClassLoader parent) {
+        List<String> elements = new ArrayList<String>(classpath.getElements(scope));
+        Key key = new Key(parent, elements);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.fingerprint.isStale()) {
+                entries.remove(key);
+                retire(entry);
+                entry = null;
+            }
+            if (entry == null) {
+                List<File> files = new ArrayList<File>(elements.size());
+                for (String element : elements) {
+                    files.add(new File(element));
+                }
+                entry = new Entry(createClassLoader(files, parent), new ClasspathFingerprint(files));
+                entries.put(key, entry);
+            }
+            entry.references++;
+            return new Lease(entry);
+        }
+    }
+
+    /**
+     * @return the number of class loaders in use or kept for reuse.
+     */
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private URLClassLoader createClassLoader(List<File> files, ClassLoader parent) {
+        try {
+            if (indexJars) {
+                try {
+                    return new IndexedClassLoader(files, parent);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Unable to index classpath, falling back to a regular class loader", e);
+                }
+            }
+            return new URLClassLoader(IndexedClassLoader.toUrls(files), parent);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid classpath element", e);
+        }
+    }
+
+    private void release(Entry entry) {
+        synchronized (entries) {
+            if (--entry.references > 0) {
+                return;
+            }
+            if (entry.retired) {
+                dispose(entry);
+                return;
+            }
+            entry.lastReleased = System.nanoTime();
+            evictIdle();
+        }
+    }
+
+    private void evictIdle() {
+        while (true) {
+            int idle = 0;
+            Map.Entry<Key, Entry> oldest = null;
+            for (Map.Entry<Key, Entry> candidate : entries.entrySet()) {
+                if (candidate.getValue().references == 0) {
+                    idle++;
+                    if (oldest == null || candidate.getValue().lastReleased < oldest.getValue().lastReleased) {
+                        oldest = candidate;
+                    }
+                }
+            }
+            if (idle <= maximumIdle || oldest == null) {
+                return;
+            }
+            entries.remove(oldest.getKey());
+            dispose(oldest.getValue());
+        }
+    }
+
+    private void retire(Entry entry) {
+        entry.retired = true;
+        if (entry.references == 0) {
+            dispose(entry);
+        }
+    }
+
+    private void dispose(Entry entry) {
+        try {
+            if (entry.classLoader instanceof IndexedClassLoader) {
+                ((IndexedClassLoader) entry.classLoader).dispose();
+            } else {
+                // URLClassLoader is Closeable as of Java 7
+                Object classLoader = entry.classLoader;
+                if (classLoader instanceof Closeable) {
+                    ((Closeable) classLoader).close();
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Unable to close class loader", e);
+        }
+    }
+
+    /**
+     * Use of a shared class loader.
+     */
+    public final class Lease {
+        private final Entry entry;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public ClassLoader getClassLoader() {
+            if (released.get()) {
+                throw new IllegalStateException("Lease already released");
+            }
+            return entry.classLoader;
+        }
+
+        /**
+         * Give the class loader back. Releasing a lease more than once has no effect.
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                ClassLoaderCache.this.release(entry);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final URLClassLoader classLoader;
+        private final ClasspathFingerprint fingerprint;
+        private int references;
+        private long lastReleased;
+        private boolean retired;
+
+        Entry(URLClassLoader classLoader, ClasspathFingerprint fingerprint) {
+            this.classLoader = classLoader;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private static class Key {
+        private final ClassLoader parent;
+        private final List<String> elements;
+
+        Key(ClassLoader parent, List<String> elements) {
+            this.parent = parent;
+            this.elements = elements;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return parent == other.parent && elements.equals(other.elements);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(parent) * 31 + elements.hashCode();
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package fitnesse.wikitext.widgets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread-safe cache of resolved classpaths. Concurrent requests for the same key share one resolution, while
+ * resolutions for different keys run independently of each other.
+ * <p>
+ * If a {@link ClasspathStore} is provided, resolved classpaths are persisted under the key's string form. Entries
+ * the store kept from before a restart are served right away; stale ones are re-resolved in the background. A
+ * classpath that goes stale while cached is resolved again before it is served.
+ * <p>
+ * With a {@link SharedClasspathStore}, misses are first looked up in classpaths other servers resolved.
+ * <p>
+ * The cache can be bounded by number of entries and by total {@link ResolvedClasspath#getWeight() weight}; the least
+ * recently used entries are evicted first. Entries can also be given a maximum age, after which they are resolved
+ * again even if none of their inputs changed, e.g. to pick up new snapshots.
+ */
+public class ClasspathCache {
+
+    private static final Logger LOG = Logger.getLogger(ClasspathCache.class.getName());
+
+    /**
+     * Performs the actual (expensive) resolution on a cache miss.
+     */
+    public interface Resolver {
+        ResolvedClasspath resolve() throws MavenClasspathExtractionException;
+    }
+
+    private final ConcurrentMap<Object, Entry> entries = new ConcurrentHashMap<Object, Entry>();
+    private final Set<Object> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    private final ClasspathStore store;
+    private final ClasspathMetrics metrics;
+    private final Object evictionLock = new Object();
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "maven-classpath-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile int maximumSize;
+    private volatile long maximumWeight;
+    private volatile long expireAfterWriteNanos;
+    private volatile SharedClasspathStore sharedStore;
+
+    public ClasspathCache() {
+        this(null);
+    }
+
+    public ClasspathCache(ClasspathStore store) {
+        this(store, ClasspathMetrics.getInstance());
+    }
+
+    public ClasspathCache(ClasspathStore store, ClasspathMetrics metrics) {
+        this.store = store;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param maximumSize maximum number of classpaths to keep, 0 for no limit.
+     */
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+        if (store != null) {
+            store.setMaximumSize(maximumSize);
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * @param maximumWeight maximum total weight of the classpaths to keep, 0 for no limit.
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+        if (store != null) {
+            store.setMaximumWeight(maximumWeight);
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * @param duration time after resolution at which a classpath is resolved again, 0 to keep it until its inputs change.
+     */
+    public void setExpireAfterWrite(long duration, TimeUnit unit) {
+        this.expireAfterWriteNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * @param sharedStore classpaths shared with other servers, null to resolve everything here.
+     */
+    public void setSharedStore(SharedClasspathStore sharedStore) {
+        this.sharedStore = sharedStore;
+    }
+
+    /**
+     * Get the classpath for a key, resolving it if it's not cached yet or if its inputs changed. Callers arriving
+     * while a resolution for the same key is in progress wait for that resolution instead of starting their own.
+     */
+    public ResolvedClasspath get(final Object key, final Resolver resolver) throws MavenClasspathExtractionException {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.future.isDone() && !refreshing.contains(key)) {
+            if (isExpired(entry) || isStale(entry.future)) {
+                // Resolve it again right away, rather than serve the same outdated classpath from the store
+                discard(key, entry);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            ResolvedClasspath stored = store != null ? store.get(key.toString()) : null;
+            if (stored != null) {
+                entry = entries.putIfAbsent(key, new Entry(completed(stored), resolver));
+                if (entry == null) {
+                    if (stored.isStale()) {
+                        refresh(key, resolver);
+                    }
+                    metrics.cacheHit();
+                    evictIfNeeded();
+                    return stored;
+                }
+            }
+        }
+        if (entry == null) {
+            FutureTask<ResolvedClasspath> task = new FutureTask<ResolvedClasspath>(new Callable<ResolvedClasspath>() {
+                @Override
+                public ResolvedClasspath call() throws MavenClasspathExtractionException {
+                    ResolvedClasspath classpath = resolve(key, resolver);
+                    if (store != null) {
+                        store.put(key.toString(), classpath);
+                    }
+                    return classpath;
+                }
+            });
+            Entry newEntry = new Entry(task, resolver);
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                metrics.cacheMiss();
+                task.run();
+                ResolvedClasspath classpath = await(key, newEntry);
+                evictIfNeeded();
+                return classpath;
+            }
+        }
+        if (entry.future.isDone()) {
+            metrics.cacheHit();
+        } else {
+            metrics.coalescedWait();
+        }
+        entry.lastAccess = System.nanoTime();
+        return await(key, entry);
+    }
+
+    /**
+     * Drop an outdated entry from the cache and the store, unless a newer classpath replaced it in the meantime.
+     */
+    private void discard(Object key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            metrics.eviction();
+        } else if (entries.containsKey(key)) {
+            return;
+        }
+        if (store != null) {
+            store.remove(key.toString());
+        }
+    }
+
+    /**
+     * Re-resolve a key in the background. The current classpath, if any, is served until the new one is ready.
+     *
+     * @return false if the key is being re-resolved already.
+     */
+    public boolean refresh(final Object key, final Resolver resolver) {
+        if (!refreshing.add(key)) {
+            return false;
+        }
+        final Entry current = entries.get(key);
+        refresher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    put(key, resolve(key, resolver), resolver);
+                } catch (MavenClasspathExtractionException e) {
+                    LOG.log(Level.WARNING, "Background resolution of " + key + " failed", e);
+                    metrics.failure();
+                    // Let the next request resolve it again and report the problem, unless a newer classpath
+                    // was put in the meantime
+                    if (current != null && entries.remove(key, current) && store != null) {
+                        store.remove(key.toString());
+                    }
+                } finally {
+                    refreshing.remove(key);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Re-resolve a key in the background the way it was resolved before, see {@link #refresh(Object, Resolver)}.
+     *
+     * @return false if it's not known how to resolve the key (it's not in the cache or was put without a resolver), or
+     * if the key is being re-resolved already.
+     */
+    public boolean refresh(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.resolver == null) {
+            return false;
+        }
+        return refresh(key, entry.resolver);
+    }
+
+    /**
+     * @return the resolved classpaths in the cache, by key, whether up to date or not.
+     */
+    public Map<Object, ResolvedClasspath> getResolved() {
+        Map<Object, ResolvedClasspath> resolved = new HashMap<Object, ResolvedClasspath>();
+        for (Map.Entry<Object, Entry> entry : entries.entrySet()) {
+            Future<ResolvedClasspath> future = entry.getValue().future;
+            if (future.isDone()) {
+                try {
+                    resolved.put(entry.getKey(), future.get());
+                } catch (Exception e) {
+                    // Failed resolution, nothing to watch
+                }
+            }
+        }
+        return resolved;
+    }
+
+    private ResolvedClasspath resolve(Object key, Resolver resolver) throws MavenClasspathExtractionException {
+        SharedClasspathStore shared = sharedStore;
+        return shared != null ? shared.resolve(key.toString(), resolver) : resolver.resolve();
+    }
+
+    /**
+     * Add a classpath that was resolved along with another one.
+     */
+    public void put(Object key, ResolvedClasspath classpath) {
+        put(key, classpath, null);
+    }
+
+    /**
+     * Add a classpath that was resolved along with another one, and can be resolved again on its own with the given
+     * resolver, e.g. by {@link #refresh(Object)}.
+     */
+    public void put(Object key, ResolvedClasspath classpath, Resolver resolver) {
+        // The store first, so a reader that gets the new classpath finds it stored too
+        if (store != null) {
+            store.put(key.toString(), classpath);
+        }
+        // Replaces the previous classpath in one go; readers get either the old or the new one
+        entries.put(key, new Entry(completed(classpath), resolver));
+        SharedClasspathStore shared = sharedStore;
+        if (shared != null) {
+            shared.put(key.toString(), classpath);
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * @return the cached classpath if it's resolved and up to date, null otherwise.
+     */
+    public ResolvedClasspath getIfPresent(Object key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.future.isDone() && !isExpired(entry) && !isStale(entry.future)) {
+            try {
+                entry.lastAccess = System.nanoTime();
+                return entry.future.get();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public void clear() {
+        entries.clear();
+        metrics.cacheSize(0, 0);
+    }
+
+    /**
+     * @return the number of cached classpaths, including the ones being resolved.
+     */
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total weight of the resolved classpaths in the cache.
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Entry entry : entries.values()) {
+            weight += entry.getWeight();
+        }
+        return weight;
+    }
+
+    /**
+     * Evict the least recently used classpaths until the cache is within its bounds. Classpaths being resolved are
+     * left alone. Evicted classpaths are dropped from the store as well, so it stays bounded too.
+     */
+    private void evictIfNeeded() {
+        synchronized (evictionLock) {
+            List<Map.Entry<Object, Entry>> candidates = new ArrayList<Map.Entry<Object, Entry>>();
+            int size = 0;
+            long weight = 0;
+            for (Map.Entry<Object, Entry> entry : entries.entrySet()) {
+                size++;
+                weight += entry.getValue().getWeight();
+                if (entry.getValue().future.isDone()) {
+                    candidates.add(entry);
+                }
+            }
+            int maxSize = maximumSize;
+            long maxWeight = maximumWeight;
+            if ((maxSize > 0 && size > maxSize) || (maxWeight > 0 && weight > maxWeight)) {
+                Collections.sort(candidates, new Comparator<Map.Entry<Object, Entry>>() {
+                    @Override
+                    public int compare(Map.Entry<Object, Entry> a, Map.Entry<Object, Entry> b) {
+                        long difference = a.getValue().lastAccess - b.getValue().lastAccess;
+                        return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+                    }
+                });
+                for (Map.Entry<Object, Entry> candidate : candidates) {
+                    if ((maxSize <= 0 || size <= maxSize) && (maxWeight <= 0 || weight <= maxWeight)) {
+                        break;
+                    }
+                    if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                        size--;
+                        weight -= candidate.getValue().getWeight();
+                        metrics.eviction();
+                        if (store != null) {
+                            store.remove(candidate.getKey().toString());
+                        }
+                    }
+                }
+            }
+            metrics.cacheSize(size, weight);
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        long expireAfter = expireAfterWriteNanos;
+        return expireAfter > 0 && System.nanoTime() - entry.created > expireAfter;
+    }
+
+    private static Future<ResolvedClasspath> completed(final ResolvedClasspath classpath) {
+        FutureTask<ResolvedClasspath> future = new FutureTask<ResolvedClasspath>(new Callable<ResolvedClasspath>() {
+            @Override
+            public ResolvedClasspath call() {
+                return classpath;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    private static boolean isStale(Future<ResolvedClasspath> future) {
+        try {
+            return future.get().isStale();
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    private ResolvedClasspath await(Object key, Entry entry) throws MavenClasspathExtractionException {
+        try {
+            return entry.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MavenClasspathExtractionException("Interrupted while waiting for classpath resolution", e);
+        } catch (ExecutionException e) {
+            // Failures are not cached: the next request tries again
+            if (entries.remove(key, entry)) {
+                metrics.failure();
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof MavenClasspathExtractionException) {
+                throw (MavenClasspathExtractionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new MavenClasspathExtractionException(cause);
+        }
+    }
+
+    private static class Entry {
+        private final Future<ResolvedClasspath> future;
+        private final Resolver resolver;
+        private final long created = System.nanoTime();
+        private volatile long lastAccess = created;
+
+        Entry(Future<ResolvedClasspath> future, Resolver resolver) {
+            this.future = future;
+            this.resolver = resolver;
+        }
+
+        int getWeight() {
+            if (!future.isDone()) {
+                return 0;
+            }
+            try {
+                return future.get().getWeight();
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Snapshot of the files a classpath was resolved from (POM, parent POMs, settings files and the POM files of
+ * the resolved artifacts). Checking whether any of them changed only takes a stat per file.
+ */
+public final class ClasspathFingerprint {
+
+    /** Fingerprint without inputs; never stale. */
+    public static final ClasspathFingerprint NONE = new ClasspathFingerprint(Collections.<File>emptyList());
+
+    private static final int ID_LENGTH = 6;
+
+    private static final WeakInterner<File> FILES = new WeakInterner<File>();
+
+    private final File[] files;
+    private final long[] lastModified;
+    private final long[] length;
+    private volatile String id;
+
+    ClasspathFingerprint(File[] files, long[] lastModified, long[] length) {
+        for (int i = 0; i < files.length; i++) {
+            files[i] = FILES.intern(files[i]);
+        }
+        this.files = files;
+        this.lastModified = lastModified;
+        this.length = length;
+    }
+
+    public ClasspathFingerprint(Collection<File> inputs) {
+        Set<File> unique = new LinkedHashSet<File>();
+        for (File input : inputs) {
+            unique.add(FILES.intern(input.getAbsoluteFile()));
+        }
+        files = unique.toArray(new File[unique.size()]);
+        lastModified = new long[files.length];
+        length = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            length[i] = files[i].length();
+        }
+    }
+
+    /**
+     * @return true if any of the input files has been modified, created or removed since this fingerprint was taken.
+     */
+    public boolean isStale() {
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].lastModified() != lastModified[i] || files[i].length() != length[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return files.length;
+    }
+
+    File getFile(int index) {
+        return files[index];
+    }
+
+    long getLastModified(int index) {
+        return lastModified[index];
+    }
+
+    long getLength(int index) {
+        return length[index];
+    }
+
+    public List<File> getFiles() {
+        return Collections.unmodifiableList(new ArrayList<File>(Arrays.asList(files)));
+    }
+
+    /**
+     * @return a short identifier of the inputs and their state, the same for fingerprints of the same files taken
+     * while the files were the same, e.g. before and after a restart.
+     */
+    public String getId() {
+        String id = this.id;
+        if (id == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                for (int i = 0; i < files.length; i++) {
+                    digest.update(files[i].getPath().getBytes("UTF-8"));
+                    digest.update(toBytes(lastModified[i]));
+                    digest.update(toBytes(length[i]));
+                }
+                byte[] hash = digest.digest();
+                StringBuilder hex = new StringBuilder(ID_LENGTH * 2);
+                for (int i = 0; i < ID_LENGTH; i++) {
+                    hex.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+                }
+                id = hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            this.id = id;
+        }
+        return id;
+    }
+
+    private static byte[] toBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+}
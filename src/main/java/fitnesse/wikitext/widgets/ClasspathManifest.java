@@ -0,0 +1,260 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Precomputed classpaths, for builds in which the POMs do not change, e.g. on a CI server. A manifest is written next
+ * to the POM, as <code>pom.xml.classpath</code>, with the classpath of every scope and a SHA-1 checksum of the content
+ * of every file the classpath was resolved from. While the checksums match, <code>!pomFile</code> reads the classpath
+ * from the manifest, without starting Maven.
+ * <p>
+ * Write manifests with
+ * <pre>
+ *     java -cp maven-classpath-plugin-jar-with-dependencies.jar fitnesse.wikitext.widgets.ClasspathManifest pom.xml ...
+ * </pre>
+ * and add <code>-check</code> to only report whether the manifests are up to date.
+ * <p>
+ * Checksums are over file contents rather than modification times, so a fresh checkout of the same POMs still
+ * matches. Classpath elements are absolute, so the manifest is meant for the machine, or at least the local
+ * repository location, it was written on. The manifest itself ends with a checksum of its lines.
+ */
+public class ClasspathManifest {
+
+    private static final Logger LOG = Logger.getLogger(ClasspathManifest.class.getName());
+
+    public static final String SUFFIX = ".classpath";
+
+    private static final String HEADER = "# Maven classpath manifest, written by " + ClasspathManifest.class.getName();
+    private static final String VERSION = "version 1";
+    private static final String INPUT = "input ";
+    private static final String SCOPE = "scope ";
+    private static final String ELEMENT = "element ";
+    private static final String CHECKSUM = "checksum ";
+    private static final String MISSING = "-";
+
+    private ClasspathManifest() {
+    }
+
+    public static File manifestFile(File pomFile) {
+        return new File(pomFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Resolve a POM and write its manifest.
+     */
+    public static File write(File pomFile, MavenClasspathExtractor extractor)
+            throws MavenClasspathExtractionException, IOException {
+        File absolutePomFile = pomFile.getAbsoluteFile();
+        return write(absolutePomFile, extractor.resolveClasspath(absolutePomFile));
+    }
+
+    public static File write(File pomFile, ResolvedClasspath classpath) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        lines.add(HEADER);
+        lines.add(VERSION);
+        for (File input : classpath.getFingerprint().getFiles()) {
+            lines.add(INPUT + checksum(input) + " " + input.getPath());
+        }
+        for (String scope : classpath.getScopes()) {
+            lines.add(SCOPE + scope);
+            for (String element : classpath.getElements(scope)) {
+                lines.add(ELEMENT + element);
+            }
+        }
+        lines.add(CHECKSUM + checksum(lines));
+
+        File file = manifestFile(pomFile);
+        File tempFile = new File(file.getPath() + ".tmp");
+        boolean replaced = false;
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+            try {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            // renameTo() does not replace an existing file on all platforms
+            if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                throw new IOException("Unable to replace " + file);
+            }
+            replaced = true;
+        } finally {
+            if (!replaced) {
+                tempFile.delete();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @return the classpath in the POM's manifest, or null if there is no manifest or it's outdated or corrupt.
+     */
+    public static ResolvedClasspath read(File pomFile) {
+        File file = manifestFile(pomFile);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            List<String> lines = readLines(file);
+            if (lines.size() < 3 || !VERSION.equals(lines.get(1)) || !lines.get(lines.size() - 1).startsWith(CHECKSUM)) {
+                LOG.warning("Ignoring classpath manifest with unknown format: " + file);
+                return null;
+            }
+            String checksum = lines.remove(lines.size() - 1).substring(CHECKSUM.length());
+            if (!checksum.equals(checksum(lines))) {
+                LOG.warning("Ignoring corrupt classpath manifest: " + file);
+                return null;
+            }
+
+            List<File> inputs = new ArrayList<File>();
+            Map<String, List<String>> classpaths = new LinkedHashMap<String, List<String>>();
+            List<String> elements = null;
+            for (String line : lines.subList(2, lines.size())) {
+                if (line.startsWith(INPUT)) {
+                    String[] input = line.substring(INPUT.length()).split(" ", 2);
+                    File inputFile = new File(input[1]);
+                    if (!input[0].equals(checksum(inputFile))) {
+                        LOG.info("Classpath manifest " + file + " is outdated, " + inputFile + " changed");
+                        return null;
+                    }
+                    inputs.add(inputFile);
+                } else if (line.startsWith(SCOPE)) {
+                    elements = new ArrayList<String>();
+                    classpaths.put(line.substring(SCOPE.length()), elements);
+                } else if (line.startsWith(ELEMENT) && elements != null) {
+                    elements.add(line.substring(ELEMENT.length()));
+                }
+            }
+            return new ResolvedClasspath(classpaths, new ClasspathFingerprint(inputs));
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to read classpath manifest " + file, e);
+            return null;
+        }
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            List<String> lines = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the SHA-1 of the file's content, or "-" if there is no such file.
+     */
+    static String checksum(File file) throws IOException {
+        MessageDigest digest = sha1();
+        InputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return MISSING;
+        }
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return hex(digest.digest());
+    }
+
+    private static String checksum(List<String> lines) {
+        MessageDigest digest = sha1();
+        try {
+            for (String line : lines) {
+                digest.update(line.getBytes("UTF-8"));
+                digest.update((byte) '\n');
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Write (or with <code>-check</code>, verify) the manifests of the given POM files. Exits with status 1 if any
+     * POM can't be resolved or, when checking, any manifest is outdated.
+     */
+    public static void main(String[] args) throws Exception {
+        boolean check = false;
+        List<File> pomFiles = new ArrayList<File>();
+        for (String arg : args) {
+            if ("-check".equals(arg)) {
+                check = true;
+            } else {
+                pomFiles.add(new File(arg));
+            }
+        }
+        if (pomFiles.isEmpty()) {
+            System.err.println("Usage: " + ClasspathManifest.class.getName() + " [-check] pom.xml...");
+            System.exit(2);
+        }
+
+        boolean failed = false;
+        MavenClasspathExtractor extractor = check ? null : new MavenClasspathExtractor();
+        for (File pomFile : pomFiles) {
+            if (check) {
+                boolean upToDate = read(pomFile) != null;
+                System.out.println((upToDate ? "Up to date: " : "Outdated: ") + manifestFile(pomFile));
+                failed |= !upToDate;
+            } else {
+                try {
+                    System.out.println("Wrote " + write(pomFile, extractor));
+                } catch (MavenClasspathExtractionException e) {
+                    System.err.println("Unable to resolve " + pomFile + ": " + e.getMessage());
+                    failed = true;
+                }
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
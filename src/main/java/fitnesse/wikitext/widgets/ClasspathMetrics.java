@@ -0,0 +1,296 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timers for the stages of classpath resolution, cache counters and the size of each resolved POM. One instance is
+ * shared by the symbol type, the extractor and {@link MavenClasspathResponder}, and can be registered with JMX.
+ */
+public class ClasspathMetrics implements ClasspathMetricsMBean {
+
+    private static final Logger LOG = Logger.getLogger(ClasspathMetrics.class.getName());
+
+    public static final String OBJECT_NAME = "fitnesse.wikitext.widgets:type=MavenClasspath";
+
+    /** Starting the Plexus container. */
+    public static final String CONTAINER = "container";
+    /** Waiting for an extractor session, when all are in use. */
+    public static final String SESSION_WAIT = "sessionWait";
+    /** Reading settings.xml into a request template. */
+    public static final String SETTINGS = "settings";
+    /** Building the project model: inheritance, interpolation, profiles. */
+    public static final String PROJECT_MODEL = "projectModel";
+    /** Collecting and resolving the dependency graph. */
+    public static final String DEPENDENCIES = "dependencies";
+    /** Turning resolved artifacts into classpath elements. */
+    public static final String CLASSPATH = "classpath";
+    /** Fetching a batch of artifacts and metadata from a remote repository. */
+    public static final String DOWNLOAD = "download";
+    /** Checking the files the outcome depends on. */
+    public static final String FINGERPRINT = "fingerprint";
+    /** A complete resolution, all stages included. */
+    public static final String RESOLUTION = "resolution";
+
+    private static final ClasspathMetrics INSTANCE = new ClasspathMetrics();
+    private static boolean registered;
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentSkipListMap<String, Timer>();
+    private final ConcurrentMap<String, long[]> pomSizes = new ConcurrentSkipListMap<String, long[]>();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong coalescedWaits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private volatile long cacheSize;
+    private volatile long cacheWeight;
+
+    public static ClasspathMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Register the shared instance with the platform MBean server, unless that's been done already.
+     */
+    public static synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+            registered = true;
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Unable to register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * @return the start time to pass to {@link #record(String, long)}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void record(String stage, long start) {
+        long nanos = System.nanoTime() - start;
+        Timer timer = timers.get(stage);
+        if (timer == null) {
+            Timer newTimer = new Timer();
+            timer = timers.putIfAbsent(stage, newTimer);
+            if (timer == null) {
+                timer = newTimer;
+            }
+        }
+        timer.add(nanos);
+    }
+
+    void resolved(File pomFile, int artifacts, int classpathEntries) {
+        pomSizes.put(pomFile.getPath(), new long[] { artifacts, classpathEntries });
+    }
+
+    void cacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    void cacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    void coalescedWait() {
+        coalescedWaits.incrementAndGet();
+    }
+
+    void eviction() {
+        evictions.incrementAndGet();
+    }
+
+    void failure() {
+        failures.incrementAndGet();
+    }
+
+    void downloaded(long bytes) {
+        downloads.incrementAndGet();
+        downloadedBytes.addAndGet(bytes);
+    }
+
+    void cacheSize(long size, long weight) {
+        cacheSize = size;
+        cacheWeight = weight;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public long getCoalescedWaits() {
+        return coalescedWaits.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    @Override
+    public long getCacheWeight() {
+        return cacheWeight;
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = cacheHits.get();
+        long requests = hits + cacheMisses.get() + coalescedWaits.get();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public long getDownloads() {
+        return downloads.get();
+    }
+
+    @Override
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    @Override
+    public long getDownloadBytesPerSecond() {
+        long millis = getStageMillis(DOWNLOAD);
+        return millis == 0 ? 0 : downloadedBytes.get() * 1000 / millis;
+    }
+
+    @Override
+    public long getResolutions() {
+        return getStageCount(RESOLUTION);
+    }
+
+    public long getStageCount(String stage) {
+        Timer timer = timers.get(stage);
+        return timer != null ? timer.count.get() : 0;
+    }
+
+    public long getStageMillis(String stage) {
+        Timer timer = timers.get(stage);
+        return timer != null ? TimeUnit.NANOSECONDS.toMillis(timer.totalNanos.get()) : 0;
+    }
+
+    @Override
+    public String[] getStageTimes() {
+        List<String> stageTimes = new ArrayList<String>();
+        for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+            stageTimes.add(timer.getKey() + ": count=" + timer.getValue().count.get()
+                    + " totalMillis=" + TimeUnit.NANOSECONDS.toMillis(timer.getValue().totalNanos.get())
+                    + " maxMillis=" + TimeUnit.NANOSECONDS.toMillis(timer.getValue().maxNanos.get()));
+        }
+        return stageTimes.toArray(new String[stageTimes.size()]);
+    }
+
+    @Override
+    public String[] getPomSizes() {
+        List<String> sizes = new ArrayList<String>();
+        for (Map.Entry<String, long[]> pom : pomSizes.entrySet()) {
+            sizes.add(pom.getKey() + ": artifacts=" + pom.getValue()[0] + " classpathEntries=" + pom.getValue()[1]);
+        }
+        return sizes.toArray(new String[sizes.size()]);
+    }
+
+    @Override
+    public void reset() {
+        timers.clear();
+        pomSizes.clear();
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        coalescedWaits.set(0);
+        evictions.set(0);
+        failures.set(0);
+        downloads.set(0);
+        downloadedBytes.set(0);
+    }
+
+    /**
+     * @return all metrics, one "name{labels} value" per line, the way Prometheus and friends scrape them.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        line(text, "maven_classpath_cache_hits", null, cacheHits.get());
+        line(text, "maven_classpath_cache_misses", null, cacheMisses.get());
+        line(text, "maven_classpath_cache_coalesced_waits", null, coalescedWaits.get());
+        line(text, "maven_classpath_cache_evictions", null, evictions.get());
+        line(text, "maven_classpath_cache_size", null, cacheSize);
+        line(text, "maven_classpath_cache_weight", null, cacheWeight);
+        line(text, "maven_classpath_failures", null, failures.get());
+        line(text, "maven_classpath_downloads", null, downloads.get());
+        line(text, "maven_classpath_download_bytes", null, downloadedBytes.get());
+        for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+            String label = "stage=\"" + timer.getKey() + "\"";
+            line(text, "maven_classpath_stage_count", label, timer.getValue().count.get());
+            line(text, "maven_classpath_stage_millis_total", label,
+                    TimeUnit.NANOSECONDS.toMillis(timer.getValue().totalNanos.get()));
+            line(text, "maven_classpath_stage_millis_max", label,
+                    TimeUnit.NANOSECONDS.toMillis(timer.getValue().maxNanos.get()));
+        }
+        for (Map.Entry<String, long[]> pom : pomSizes.entrySet()) {
+            String label = "pom=\"" + pom.getKey().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+            line(text, "maven_classpath_pom_artifacts", label, pom.getValue()[0]);
+            line(text, "maven_classpath_pom_entries", label, pom.getValue()[1]);
+        }
+        return text.toString();
+    }
+
+    private static void line(StringBuilder text, String name, String labels, long value) {
+        text.append(name);
+        if (labels != null) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    private static class Timer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void add(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max;
+            while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos)) {
+                // Another thread recorded a new maximum, check again
+            }
+        }
+    }
+}
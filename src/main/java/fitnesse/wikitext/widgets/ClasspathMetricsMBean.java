@@ -0,0 +1,55 @@
+package fitnesse.wikitext.widgets;
+
+/**
+ * JMX view on {@link ClasspathMetrics}.
+ */
+public interface ClasspathMetricsMBean {
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCoalescedWaits();
+
+    long getEvictions();
+
+    /**
+     * @return number of classpaths in the cache.
+     */
+    long getCacheSize();
+
+    /**
+     * @return total weight (classpath elements and input files) of the cached classpaths.
+     */
+    long getCacheWeight();
+
+    double getCacheHitRate();
+
+    long getFailures();
+
+    long getResolutions();
+
+    /**
+     * @return number of files fetched from remote repositories.
+     */
+    long getDownloads();
+
+    long getDownloadedBytes();
+
+    /**
+     * @return bytes fetched per second spent downloading, over all downloads.
+     */
+    long getDownloadBytesPerSecond();
+
+    /**
+     * @return per stage: count, total and maximum time in milliseconds.
+     */
+    String[] getStageTimes();
+
+    /**
+     * @return per POM: number of artifacts and classpath entries.
+     */
+    String[] getPomSizes();
+
+    void reset();
+}
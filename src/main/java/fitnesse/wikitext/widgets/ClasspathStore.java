@@ -0,0 +1,325 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * On-disk copy of resolved classpaths, so a restarted FitNesse server does not have to resolve every POM again.
+ * <p>
+ * Entries are kept in memory and written to a single file in the background. Paths shared between entries are
+ * stored only once. The file is replaced atomically, so a crash never leaves a half written store behind.
+ * <p>
+ * The store can be bounded like the {@link ClasspathCache} in front of it. Entries are kept, and saved, in least
+ * recently used order, so the limits also apply to entries loaded from a previous run that are never asked for again.
+ */
+public class ClasspathStore {
+
+    private static final Logger LOG = Logger.getLogger(ClasspathStore.class.getName());
+
+    private static final int MAGIC = 0x4d435033; // "MCP3"
+
+    private final File file;
+    private final Map<String, ResolvedClasspath> entries =
+            Collections.synchronizedMap(new LinkedHashMap<String, ResolvedClasspath>(16, 0.75f, true));
+    private volatile int maximumSize;
+    private volatile long maximumWeight;
+    private final AtomicBoolean writePending = new AtomicBoolean();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "maven-classpath-store");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public ClasspathStore(File file) {
+        this.file = file;
+        load();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @param maximumSize maximum number of classpaths to keep, 0 for no limit.
+     */
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+        if (evictIfNeeded()) {
+            scheduleSave();
+        }
+    }
+
+    /**
+     * @param maximumWeight maximum total weight of the classpaths to keep, 0 for no limit.
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+        if (evictIfNeeded()) {
+            scheduleSave();
+        }
+    }
+
+    public ResolvedClasspath get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Record a classpath. The store file is updated asynchronously; bursts of updates result in a single write.
+     */
+    public void put(String key, ResolvedClasspath classpath) {
+        entries.put(key, classpath);
+        evictIfNeeded();
+        scheduleSave();
+    }
+
+    public void remove(String key) {
+        if (entries.remove(key) != null) {
+            scheduleSave();
+        }
+    }
+
+    private void scheduleSave() {
+        if (writePending.compareAndSet(false, true)) {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writePending.set(false);
+                    save();
+                }
+            });
+        }
+    }
+
+    /**
+     * Drop the least recently used classpaths until the store is within its limits.
+     *
+     * @return whether anything was dropped.
+     */
+    private boolean evictIfNeeded() {
+        int maxSize = maximumSize;
+        long maxWeight = maximumWeight;
+        if (maxSize <= 0 && maxWeight <= 0) {
+            return false;
+        }
+        synchronized (entries) {
+            int size = entries.size();
+            long weight = 0;
+            for (ResolvedClasspath classpath : entries.values()) {
+                weight += classpath.getWeight();
+            }
+            boolean evicted = false;
+            Iterator<ResolvedClasspath> eldest = entries.values().iterator();
+            while (eldest.hasNext() && ((maxSize > 0 && size > maxSize) || (maxWeight > 0 && weight > maxWeight))) {
+                weight -= eldest.next().getWeight();
+                eldest.remove();
+                size--;
+                evicted = true;
+            }
+            return evicted;
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                Map<String, ResolvedClasspath> stored = read(in);
+                if (stored == null) {
+                    LOG.warning("Ignoring classpath store with unknown format: " + file);
+                    return;
+                }
+                entries.putAll(stored);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            entries.clear();
+            LOG.log(Level.WARNING, "Unable to read classpath store " + file, e);
+        } catch (RuntimeException e) {
+            entries.clear();
+            LOG.log(Level.WARNING, "Ignoring corrupt classpath store " + file, e);
+        }
+    }
+
+    synchronized void save() {
+        Map<String, ResolvedClasspath> snapshot;
+        synchronized (entries) {
+            snapshot = new LinkedHashMap<String, ResolvedClasspath>(entries);
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Unable to create directory " + parent);
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                write(out, snapshot);
+            } finally {
+                out.close();
+            }
+            // renameTo() does not replace an existing file on all platforms
+            if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            LOG.log(Level.WARNING, "Unable to write classpath store " + file, e);
+        }
+    }
+
+    /**
+     * @return the classpaths by key, in the order they were written, or null if the stream is not in the store format.
+     */
+    static Map<String, ResolvedClasspath> read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            return null;
+        }
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        Map<String, ResolvedClasspath> classpathsByKey = new LinkedHashMap<String, ResolvedClasspath>();
+        int entryCount = in.readInt();
+        for (int i = 0; i < entryCount; i++) {
+            String key = strings[in.readInt()];
+            int fileCount = in.readInt();
+            File[] files = new File[fileCount];
+            long[] lastModified = new long[fileCount];
+            long[] length = new long[fileCount];
+            for (int f = 0; f < fileCount; f++) {
+                files[f] = new File(strings[in.readInt()]);
+                lastModified[f] = in.readLong();
+                length[f] = in.readLong();
+            }
+            Map<String, List<String>> classpaths = new HashMap<String, List<String>>();
+            int scopeCount = in.readInt();
+            for (int c = 0; c < scopeCount; c++) {
+                String scope = strings[in.readInt()];
+                int elementCount = in.readInt();
+                List<String> elements = new ArrayList<String>(elementCount);
+                for (int e = 0; e < elementCount; e++) {
+                    elements.add(strings[in.readInt()]);
+                }
+                classpaths.put(scope, elements);
+            }
+            DependencyTree tree = null;
+            if (in.readBoolean()) {
+                String root = strings[in.readInt()];
+                int nodeCount = in.readInt();
+                String[] artifacts = new String[nodeCount];
+                String[] versions = new String[nodeCount];
+                String[] scopes = new String[nodeCount];
+                boolean[] optional = new boolean[nodeCount];
+                int[] depths = new int[nodeCount];
+                for (int n = 0; n < nodeCount; n++) {
+                    artifacts[n] = strings[in.readInt()];
+                    versions[n] = strings[in.readInt()];
+                    scopes[n] = strings[in.readInt()];
+                    optional[n] = in.readBoolean();
+                    depths[n] = in.readInt();
+                }
+                tree = new DependencyTree(root, artifacts, versions, scopes, optional, depths);
+            }
+            classpathsByKey.put(key, new ResolvedClasspath(classpaths,
+                    new ClasspathFingerprint(files, lastModified, length), tree));
+        }
+        return classpathsByKey;
+    }
+
+    static void write(DataOutputStream out, Map<String, ResolvedClasspath> classpathsByKey) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        for (Map.Entry<String, ResolvedClasspath> entry : classpathsByKey.entrySet()) {
+            index(strings, entry.getKey());
+            ClasspathFingerprint fingerprint = entry.getValue().getFingerprint();
+            for (int f = 0; f < fingerprint.size(); f++) {
+                index(strings, fingerprint.getFile(f).getPath());
+            }
+            for (String scope : entry.getValue().getScopes()) {
+                index(strings, scope);
+                for (String element : entry.getValue().getElements(scope)) {
+                    index(strings, element);
+                }
+            }
+            DependencyTree tree = entry.getValue().getDependencyTree();
+            if (tree != null) {
+                index(strings, tree.getRoot());
+                for (int n = 0; n < tree.size(); n++) {
+                    index(strings, tree.getArtifact(n));
+                    index(strings, tree.getVersion(n));
+                    index(strings, tree.getScope(n));
+                }
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(strings.size());
+        for (String string : strings.keySet()) {
+            out.writeUTF(string);
+        }
+        out.writeInt(classpathsByKey.size());
+        for (Map.Entry<String, ResolvedClasspath> entry : classpathsByKey.entrySet()) {
+            out.writeInt(strings.get(entry.getKey()));
+            ClasspathFingerprint fingerprint = entry.getValue().getFingerprint();
+            out.writeInt(fingerprint.size());
+            for (int f = 0; f < fingerprint.size(); f++) {
+                out.writeInt(strings.get(fingerprint.getFile(f).getPath()));
+                out.writeLong(fingerprint.getLastModified(f));
+                out.writeLong(fingerprint.getLength(f));
+            }
+            out.writeInt(entry.getValue().getScopes().size());
+            for (String scope : entry.getValue().getScopes()) {
+                List<String> elements = entry.getValue().getElements(scope);
+                out.writeInt(strings.get(scope));
+                out.writeInt(elements.size());
+                for (String element : elements) {
+                    out.writeInt(strings.get(element));
+                }
+            }
+            DependencyTree tree = entry.getValue().getDependencyTree();
+            out.writeBoolean(tree != null);
+            if (tree != null) {
+                out.writeInt(strings.get(tree.getRoot()));
+                out.writeInt(tree.size());
+                for (int n = 0; n < tree.size(); n++) {
+                    out.writeInt(strings.get(tree.getArtifact(n)));
+                    out.writeInt(strings.get(tree.getVersion(n)));
+                    out.writeInt(strings.get(tree.getScope(n)));
+                    out.writeBoolean(tree.isOptional(n));
+                    out.writeInt(tree.getDepth(n));
+                }
+            }
+        }
+    }
+
+    private static void index(Map<String, Integer> strings, String string) {
+        if (!strings.containsKey(string)) {
+            strings.put(string, strings.size());
+        }
+    }
+}
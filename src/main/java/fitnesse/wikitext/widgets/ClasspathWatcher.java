@@ -0,0 +1,96 @@
+package fitnesse.wikitext.widgets;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the inputs of every classpath in a {@link ClasspathCache}: the POMs, their parent POMs, the settings files
+ * and the POMs of the resolved artifacts. A classpath whose inputs changed is re-resolved in the background, so the
+ * next page view does not have to wait for it. The old classpath is served until the new one replaces it.
+ * <p>
+ * Changes are debounced: a classpath is re-resolved once its inputs stayed the same for a whole poll interval, so an
+ * editor saving a POM in several steps, or a <code>mvn install</code> in progress, causes one resolution.
+ * <p>
+ * The inputs are polled, a stat per file, since the file system notification API requires Java 7.
+ */
+public class ClasspathWatcher {
+
+    private static final Logger LOG = Logger.getLogger(ClasspathWatcher.class.getName());
+
+    private final ClasspathCache cache;
+    private Map<Object, ClasspathFingerprint> changing = new HashMap<Object, ClasspathFingerprint>();
+    private ScheduledExecutorService scheduler;
+
+    public ClasspathWatcher(ClasspathCache cache) {
+        this.cache = cache;
+    }
+
+    public synchronized void start(long interval, TimeUnit unit) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "maven-classpath-watch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    // Keep watching; a failing poll must not cancel the schedule
+                    LOG.log(Level.WARNING, "Unable to check classpath inputs for changes", e);
+                }
+            }
+        }, interval, interval, unit);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /**
+     * Check all classpaths once. Classpaths whose inputs changed since the previous poll, but not since, are
+     * re-resolved.
+     *
+     * @return the number of re-resolutions started.
+     */
+    synchronized int poll() {
+        int refreshed = 0;
+        Map<Object, ClasspathFingerprint> stillChanging = new HashMap<Object, ClasspathFingerprint>();
+        for (Map.Entry<Object, ResolvedClasspath> entry : cache.getResolved().entrySet()) {
+            if (!entry.getValue().isStale()) {
+                continue;
+            }
+            ClasspathFingerprint seen = changing.get(entry.getKey());
+            if (seen != null && !seen.isStale()) {
+                if (cache.refresh(entry.getKey())) {
+                    LOG.fine("Inputs of " + entry.getKey() + " changed, resolving it again");
+                    refreshed++;
+                }
+            } else {
+                stillChanging.put(entry.getKey(), new ClasspathFingerprint(entry.getValue().getFingerprint().getFiles()));
+            }
+        }
+        changing = stillChanging;
+        return refreshed;
+    }
+}
@@ -0,0 +1,248 @@
+package fitnesse.wikitext.widgets;
+
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.graph.Dependency;
+import org.sonatype.aether.graph.DependencyNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The resolved dependency graph of a POM, as <code>mvn dependency:tree</code> shows it, kept along with its classpath
+ * so it can be looked at without resolving again.
+ * <p>
+ * Nodes are stored depth-first in parallel arrays: the artifact (<code>groupId:artifactId:type[:classifier]</code>),
+ * its version and scope, whether it's optional and its depth below the project. Artifact, version and scope strings
+ * are interned, since the same libraries show up in the trees of most POMs.
+ */
+public final class DependencyTree {
+
+    private static final WeakInterner<String> STRINGS = new WeakInterner<String>();
+
+    private final String root;
+    private final String[] artifacts;
+    private final String[] versions;
+    private final String[] scopes;
+    private final boolean[] optional;
+    private final int[] depths;
+
+    DependencyTree(String root, String[] artifacts, String[] versions, String[] scopes, boolean[] optional, int[] depths) {
+        for (int i = 0; i < artifacts.length; i++) {
+            artifacts[i] = STRINGS.intern(artifacts[i]);
+            versions[i] = STRINGS.intern(versions[i]);
+            scopes[i] = STRINGS.intern(scopes[i]);
+        }
+        this.root = root;
+        this.artifacts = artifacts;
+        this.versions = versions;
+        this.scopes = scopes;
+        this.optional = optional;
+        this.depths = depths;
+    }
+
+    /**
+     * @param root the project, e.g. <code>groupId:artifactId:packaging:version</code>
+     * @param graph the dependency graph as resolved by Aether, the project being its root node
+     */
+    static DependencyTree of(String root, DependencyNode graph) {
+        List<DependencyNode> nodes = new ArrayList<DependencyNode>();
+        List<Integer> nodeDepths = new ArrayList<Integer>();
+        for (DependencyNode child : graph.getChildren()) {
+            collect(child, 1, nodes, nodeDepths);
+        }
+        int size = nodes.size();
+        String[] artifacts = new String[size];
+        String[] versions = new String[size];
+        String[] scopes = new String[size];
+        boolean[] optional = new boolean[size];
+        int[] depths = new int[size];
+        for (int i = 0; i < size; i++) {
+            Dependency dependency = nodes.get(i).getDependency();
+            Artifact artifact = dependency.getArtifact();
+            StringBuilder id = new StringBuilder().append(artifact.getGroupId()).append(':')
+                    .append(artifact.getArtifactId()).append(':').append(artifact.getProperty("type", artifact.getExtension()));
+            if (artifact.getClassifier().length() > 0) {
+                id.append(':').append(artifact.getClassifier());
+            }
+            artifacts[i] = id.toString();
+            versions[i] = artifact.getVersion();
+            scopes[i] = dependency.getScope();
+            optional[i] = dependency.isOptional();
+            depths[i] = nodeDepths.get(i);
+        }
+        return new DependencyTree(root, artifacts, versions, scopes, optional, depths);
+    }
+
+    private static void collect(DependencyNode node, int depth, List<DependencyNode> nodes, List<Integer> depths) {
+        if (node.getDependency() == null) {
+            return;
+        }
+        nodes.add(node);
+        depths.add(depth);
+        for (DependencyNode child : node.getChildren()) {
+            collect(child, depth + 1, nodes, depths);
+        }
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    public int size() {
+        return artifacts.length;
+    }
+
+    String getArtifact(int index) {
+        return artifacts[index];
+    }
+
+    String getVersion(int index) {
+        return versions[index];
+    }
+
+    String getScope(int index) {
+        return scopes[index];
+    }
+
+    boolean isOptional(int index) {
+        return optional[index];
+    }
+
+    int getDepth(int index) {
+        return depths[index];
+    }
+
+    /**
+     * @return the tree in the format of <code>mvn dependency:tree</code>.
+     */
+    public String toText() {
+        boolean[] last = lastChildren();
+        // Whether the ancestor at each depth has siblings after it, i.e. whether its branch continues below
+        boolean[] continues = new boolean[maxDepth() + 1];
+        StringBuilder text = new StringBuilder(root).append('\n');
+        for (int i = 0; i < artifacts.length; i++) {
+            for (int depth = 1; depth < depths[i]; depth++) {
+                text.append(continues[depth] ? "|  " : "   ");
+            }
+            text.append(last[i] ? "\\- " : "+- ").append(coordinates(i)).append('\n');
+            continues[depths[i]] = !last[i];
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the tree as nested JSON objects, each with an <code>artifact</code>, <code>version</code>,
+     * <code>scope</code>, <code>optional</code> and <code>dependencies</code>.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"artifact\":");
+        quote(json, root).append(",\"dependencies\":[");
+        int previousDepth = 0;
+        for (int i = 0; i < artifacts.length; i++) {
+            if (depths[i] <= previousDepth) {
+                close(json, previousDepth - depths[i]);
+                json.append("]},");
+            }
+            json.append("{\"artifact\":");
+            quote(json, artifacts[i]).append(",\"version\":");
+            quote(json, versions[i]).append(",\"scope\":");
+            quote(json, scopes[i]).append(",\"optional\":").append(optional[i]).append(",\"dependencies\":[");
+            previousDepth = depths[i];
+        }
+        if (previousDepth > 0) {
+            close(json, previousDepth - 1);
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void close(StringBuilder json, int levels) {
+        for (int i = 0; i < levels; i++) {
+            json.append("]}");
+        }
+    }
+
+    /**
+     * Compare the artifacts two trees resolve to, regardless of where in the tree they are.
+     *
+     * @return one line per difference, by artifact: <code>+ artifact:version:scope</code> for an artifact only in the
+     * other tree, <code>- artifact:version:scope</code> for one only in this tree and
+     * <code>~ artifact version:scope -&gt; version:scope</code> for one with another version or scope.
+     */
+    public List<String> diff(DependencyTree other) {
+        Map<String, String> from = resolvedArtifacts();
+        Map<String, String> to = other.resolvedArtifacts();
+        TreeSet<String> all = new TreeSet<String>(from.keySet());
+        all.addAll(to.keySet());
+        List<String> differences = new ArrayList<String>();
+        for (String artifact : all) {
+            String before = from.get(artifact);
+            String after = to.get(artifact);
+            if (before == null) {
+                differences.add("+ " + artifact + ":" + after);
+            } else if (after == null) {
+                differences.add("- " + artifact + ":" + before);
+            } else if (!before.equals(after)) {
+                differences.add("~ " + artifact + " " + before + " -> " + after);
+            }
+        }
+        return differences;
+    }
+
+    private Map<String, String> resolvedArtifacts() {
+        Map<String, String> resolved = new LinkedHashMap<String, String>();
+        for (int i = 0; i < artifacts.length; i++) {
+            if (!resolved.containsKey(artifacts[i])) {
+                resolved.put(artifacts[i], versions[i] + ":" + scopes[i]);
+            }
+        }
+        return resolved;
+    }
+
+    private String coordinates(int index) {
+        return artifacts[index] + ":" + versions[index] + ":" + scopes[index] + (optional[index] ? " (optional)" : "");
+    }
+
+    /**
+     * A node is the last child of its parent if no node at the same depth follows before the subtree ends.
+     */
+    private boolean[] lastChildren() {
+        boolean[] last = new boolean[artifacts.length];
+        boolean[] siblingFollows = new boolean[maxDepth() + 2];
+        for (int i = artifacts.length - 1; i >= 0; i--) {
+            int depth = depths[i];
+            last[i] = !siblingFollows[depth];
+            siblingFollows[depth] = true;
+            for (int deeper = depth + 1; deeper < siblingFollows.length; deeper++) {
+                siblingFollows[deeper] = false;
+            }
+        }
+        return last;
+    }
+
+    private int maxDepth() {
+        int max = 0;
+        for (int depth : depths) {
+            max = Math.max(max, depth);
+        }
+        return max;
+    }
+
+    private static StringBuilder quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+}
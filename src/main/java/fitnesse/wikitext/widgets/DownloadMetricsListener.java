@@ -0,0 +1,43 @@
+package fitnesse.wikitext.widgets;
+
+import org.sonatype.aether.transfer.AbstractTransferListener;
+import org.sonatype.aether.transfer.TransferEvent;
+import org.sonatype.aether.transfer.TransferResource;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports the artifacts and metadata files the repository connector downloads to {@link ClasspathMetrics}. The
+ * download time is summed over the files, so with parallel transfers it is more than the time that passed.
+ */
+class DownloadMetricsListener extends AbstractTransferListener {
+
+    private final ClasspathMetrics metrics;
+    private final Map<TransferResource, Long> starts = new ConcurrentHashMap<TransferResource, Long>();
+
+    DownloadMetricsListener(ClasspathMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void transferInitiated(TransferEvent event) {
+        if (event.getRequestType() == TransferEvent.RequestType.GET) {
+            starts.put(event.getResource(), metrics.start());
+        }
+    }
+
+    @Override
+    public void transferSucceeded(TransferEvent event) {
+        Long start = starts.remove(event.getResource());
+        if (start != null) {
+            metrics.record(ClasspathMetrics.DOWNLOAD, start);
+            metrics.downloaded(event.getTransferredBytes());
+        }
+    }
+
+    @Override
+    public void transferFailed(TransferEvent event) {
+        starts.remove(event.getResource());
+    }
+}
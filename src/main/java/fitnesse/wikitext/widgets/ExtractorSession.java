@@ -0,0 +1,64 @@
+package fitnesse.wikitext.widgets;
+
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.sonatype.aether.RepositoryCache;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.DefaultSessionData;
+
+/**
+ * The mutable state of one resolution: a copy of the settings to build requests from and an Aether repository
+ * session. {@link MavenClasspathExtractor} keeps a pool of these; a session is used by one resolution at a time, so
+ * resolutions holding different sessions share nothing but the Plexus container, the read-only request template and
+ * the repository cache.
+ * <p>
+ * The repository session (mirror, proxy and authentication selectors, local repository manager) is kept between
+ * resolutions, until the template, repository cache or offline mode it was built for changes. Its session data, in
+ * which Aether remembers which remote checks it did, is fresh for every resolution, so a long-lived session does not
+ * stop snapshots from being updated.
+ */
+final class ExtractorSession {
+
+    private MavenExecutionRequest template;
+    private RepositoryCache repositoryCache;
+    private boolean offline;
+    private String updateInterval;
+
+    private MavenExecutionRequest settings;
+    private RepositorySystemSession repositorySession;
+
+    boolean isBuiltFor(MavenExecutionRequest template, RepositoryCache repositoryCache, boolean offline,
+                       String updateInterval) {
+        return settings != null && this.template == template && this.repositoryCache == repositoryCache
+                && this.offline == offline && equal(this.updateInterval, updateInterval);
+    }
+
+    void rebuild(MavenExecutionRequest template, RepositoryCache repositoryCache, boolean offline, String updateInterval,
+                 MavenExecutionRequest settings, RepositorySystemSession repositorySession) {
+        this.template = template;
+        this.repositoryCache = repositoryCache;
+        this.offline = offline;
+        this.updateInterval = updateInterval;
+        this.settings = settings;
+        this.repositorySession = repositorySession;
+    }
+
+    /**
+     * @return a request of this resolution's own, with the session's settings.
+     */
+    MavenExecutionRequest newRequest() {
+        return DefaultMavenExecutionRequest.copy(settings);
+    }
+
+    RepositorySystemSession getRepositorySession() {
+        if (repositorySession instanceof DefaultRepositorySystemSession) {
+            ((DefaultRepositorySystemSession) repositorySession).setData(new DefaultSessionData());
+        }
+        return repositorySession;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
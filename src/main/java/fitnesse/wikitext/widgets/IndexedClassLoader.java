@@ -0,0 +1,162 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * URL class loader that knows up front which jar holds which class, using a {@link JarIndex}. A class is read from
+ * its jar directly instead of probing every jar on the classpath in turn, and classes that are on no element of the
+ * classpath are rejected without opening any jar.
+ * <p>
+ * Classes and resources in elements that could not be indexed, such as output directories, are loaded the regular
+ * way. The index only names a jar when no such element before it holds the entry, so a project's own classes win
+ * over copies in its dependencies, as they do on a regular classpath.
+ */
+class IndexedClassLoader extends URLClassLoader {
+
+    private final List<File> files;
+    private final URL[] urls;
+    private final JarIndex index;
+    private final JarFile[] jarFiles;
+
+    IndexedClassLoader(List<File> files, ClassLoader parent) throws IOException {
+        this(files, toUrls(files), parent);
+    }
+
+    private IndexedClassLoader(List<File> files, URL[] urls, ClassLoader parent) throws IOException {
+        super(urls, parent);
+        this.files = files;
+        this.urls = urls;
+        this.index = new JarIndex(files);
+        this.jarFiles = new JarFile[files.size()];
+    }
+
+    static URL[] toUrls(List<File> files) throws MalformedURLException {
+        URL[] urls = new URL[files.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = files.get(i).toURI().toURL();
+        }
+        return urls;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/') + ".class";
+        int position = index.find(path);
+        if (position == -1) {
+            throw new ClassNotFoundException(name);
+        }
+        if (position == JarIndex.UNKNOWN || !index.isIndexed(position)) {
+            return super.findClass(name);
+        }
+        try {
+            return defineClass(name, path, position);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+
+    @Override
+    public URL findResource(String name) {
+        int position = index.find(name);
+        if (position == -1) {
+            return null;
+        }
+        if (position == JarIndex.UNKNOWN || !index.isIndexed(position)) {
+            return super.findResource(name);
+        }
+        try {
+            return new URL("jar:" + urls[position] + "!/" + name);
+        } catch (MalformedURLException e) {
+            return super.findResource(name);
+        }
+    }
+
+    /**
+     * Close the jars opened by this class loader. Classes already loaded remain usable.
+     */
+    void dispose() throws IOException {
+        synchronized (jarFiles) {
+            for (int i = 0; i < jarFiles.length; i++) {
+                if (jarFiles[i] != null) {
+                    jarFiles[i].close();
+                    jarFiles[i] = null;
+                }
+            }
+        }
+        // URLClassLoader is Closeable as of Java 7
+        Object self = this;
+        if (self instanceof Closeable) {
+            ((Closeable) self).close();
+        }
+    }
+
+    private Class<?> defineClass(String name, String path, int jar) throws IOException, ClassNotFoundException {
+        byte[] bytes;
+        JarEntry entry;
+        Manifest manifest;
+        synchronized (jarFiles) {
+            JarFile jarFile = jarFile(jar);
+            entry = jarFile.getJarEntry(path);
+            if (entry == null) {
+                throw new ClassNotFoundException(name);
+            }
+            bytes = read(jarFile.getInputStream(entry));
+            manifest = jarFile.getManifest();
+        }
+        definePackageOf(name, manifest, urls[jar]);
+        return defineClass(name, bytes, 0, bytes.length, new CodeSource(urls[jar], entry.getCodeSigners()));
+    }
+
+    private void definePackageOf(String className, Manifest manifest, URL url) {
+        int lastDot = className.lastIndexOf('.');
+        if (lastDot < 0) {
+            return;
+        }
+        String packageName = className.substring(0, lastDot);
+        if (getPackage(packageName) != null) {
+            return;
+        }
+        try {
+            if (manifest != null) {
+                definePackage(packageName, manifest, url);
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException e) {
+            // Defined by another thread in the meantime
+        }
+    }
+
+    private JarFile jarFile(int jar) throws IOException {
+        if (jarFiles[jar] == null) {
+            jarFiles[jar] = new JarFile(files.get(jar));
+        }
+        return jarFiles[jar];
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
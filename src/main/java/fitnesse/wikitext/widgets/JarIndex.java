@@ -0,0 +1,198 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Index of the entries of a classpath: for each entry name, the first jar on the classpath that contains it. Only the
+ * zip central directory at the end of each jar is read, so indexing a jar does not inflate anything or read its
+ * contents.
+ * <p>
+ * Classpath order is kept: elements that are not indexed, such as output directories, are checked for an entry
+ * before any jar that comes after them. Directories (and elements that don't exist yet) are checked with a single
+ * file lookup; files that could not be indexed make the index give up on entries they might hold.
+ */
+class JarIndex {
+
+    /**
+     * {@link #find(String)} result for an entry that may be in an element that could not be indexed.
+     */
+    static final int UNKNOWN = -2;
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, Integer> entries = new HashMap<String, Integer>();
+    private final File[] elements;
+    private final boolean[] indexed;
+    private final boolean[] opaque;
+    private final int[] unindexed;
+
+    /**
+     * @param classpath the classpath to index; elements that are not jars are looked into on every {@link #find}.
+     */
+    JarIndex(List<File> classpath) throws IOException {
+        elements = classpath.toArray(new File[classpath.size()]);
+        indexed = new boolean[elements.length];
+        opaque = new boolean[elements.length];
+        List<Integer> positions = new ArrayList<Integer>();
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i].isFile()) {
+                indexed[i] = index(elements[i], i);
+                opaque[i] = !indexed[i];
+            }
+            if (!indexed[i]) {
+                positions.add(i);
+            }
+        }
+        unindexed = new int[positions.size()];
+        for (int i = 0; i < unindexed.length; i++) {
+            unindexed[i] = positions.get(i);
+        }
+    }
+
+    /**
+     * @return the position on the classpath of the first element containing the entry, -1 if no element contains
+     * it, or {@link #UNKNOWN} if an element that could not be indexed comes first.
+     */
+    int find(String entryName) {
+        Integer jar = entries.get(entryName);
+        int end = jar != null ? jar : elements.length;
+        for (int position : unindexed) {
+            if (position >= end) {
+                break;
+            }
+            if (opaque[position]) {
+                return UNKNOWN;
+            }
+            if (new File(elements[position], entryName).exists()) {
+                return position;
+            }
+        }
+        return jar != null ? jar : -1;
+    }
+
+    /**
+     * @return whether the element at the position is a jar read through the index.
+     */
+    boolean isIndexed(int position) {
+        return indexed[position];
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return false if the file isn't a zip file.
+     */
+    private boolean index(File jar, int position) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(jar, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size < END_OF_CENTRAL_DIRECTORY_SIZE) {
+                return false;
+            }
+            int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+            ByteBuffer tail = read(channel, size - tailSize, tailSize);
+            int end = findEndOfCentralDirectory(tail);
+            if (end >= 0) {
+                int count = tail.getShort(end + 10) & 0xffff;
+                long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+                long offset = tail.getInt(end + 16) & 0xffffffffL;
+                if (count != 0xffff && directorySize <= Integer.MAX_VALUE && offset + directorySize <= size
+                        && indexCentralDirectory(read(channel, offset, (int) directorySize), count, position)) {
+                    return true;
+                }
+            }
+        } finally {
+            file.close();
+        }
+        // Zip64 or otherwise unusual archive
+        return indexWithZipFile(jar, position);
+    }
+
+    /**
+     * Positional reads into a heap buffer rather than a memory mapping, which would keep the jar locked on Windows
+     * until the mapping is garbage collected.
+     */
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private boolean indexCentralDirectory(ByteBuffer buffer, int count, int position) {
+        int entry = 0;
+        for (int i = 0; i < count; i++) {
+            if (entry + 46 > buffer.limit() || buffer.getInt(entry) != CENTRAL_DIRECTORY_ENTRY) {
+                return false;
+            }
+            int nameLength = buffer.getShort(entry + 28) & 0xffff;
+            int extraLength = buffer.getShort(entry + 30) & 0xffff;
+            int commentLength = buffer.getShort(entry + 32) & 0xffff;
+            if (entry + 46 + nameLength > buffer.limit()) {
+                return false;
+            }
+            add(new String(buffer.array(), entry + 46, nameLength, UTF_8), position);
+            entry += 46 + nameLength + extraLength + commentLength;
+        }
+        return true;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) {
+        for (int i = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean indexWithZipFile(File jar, int position) throws IOException {
+        ZipFile zipFile;
+        try {
+            zipFile = new ZipFile(jar);
+        } catch (ZipException e) {
+            return false;
+        }
+        try {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                add(zipEntries.nextElement().getName(), position);
+            }
+            return true;
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private void add(String name, int position) {
+        if (!entries.containsKey(name)) {
+            entries.put(name, position);
+        }
+    }
+}
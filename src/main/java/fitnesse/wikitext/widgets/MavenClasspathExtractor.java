@@ -2,6 +2,8 @@ package fitnesse.wikitext.widgets;
 
 import org.apache.maven.DefaultMaven;
 import org.apache.maven.Maven;
+import org.apache.maven.RepositoryUtils;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.cli.MavenCli;
 import org.apache.maven.execution.DefaultMavenExecutionRequest;
@@ -18,13 +20,33 @@ import org.codehaus.plexus.component.repository.exception.ComponentLookupExcepti
 import org.codehaus.plexus.logging.Logger;
 import org.codehaus.plexus.logging.console.ConsoleLoggerManager;
 import org.codehaus.plexus.util.Os;
+import org.sonatype.aether.RepositoryCache;
 import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.repository.LocalRepositoryManager;
+import org.sonatype.aether.repository.RepositoryPolicy;
+import org.sonatype.aether.util.DefaultRepositoryCache;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.listener.ChainedTransferListener;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Utility class to extract classpath elements from Maven projects. Heavily based on code copied from Jenkin's Maven
@@ -34,10 +56,39 @@ public class MavenClasspathExtractor {
 
 	public final static String DEFAULT_SCOPE = "test";
 	public final static String MAVEN_USER_SETTINGS = "maven.user.settings";
+	/** Resolve against the local repository only (if given value true). */
+	public final static String MAVEN_OFFLINE = "maven.classpath.offline";
+	/** Check remote repositories for updated snapshots and metadata at most once per this many minutes. */
+	public final static String MAVEN_UPDATE_INTERVAL = "maven.classpath.updateInterval";
+	/** Maximum number of artifacts and metadata files downloaded at the same time, per repository and resolution. */
+	public final static String MAVEN_DOWNLOAD_THREADS = "maven.classpath.downloadThreads";
+	public final static int DEFAULT_DOWNLOAD_THREADS = 8;
+	// Configuration property of the Wagon repository connector
+	private final static String WAGON_THREADS = "aether.connector.wagon.threads";
+	/** Number of resolutions that run at the same time, each in a session of its own. Defaults to the processor count. */
+	public final static String MAVEN_SESSIONS = "maven.classpath.sessions";
 
 	private final Logger logger = new ConsoleLoggerManager().getLoggerForComponent("maven-classpath-plugin");
 	
-	private PlexusContainer plexusContainer;
+	// Replaced by a fresh task if starting the container fails, so the next lookup tries again
+	private final AtomicReference<FutureTask<PlexusContainer>> plexusContainer =
+	        new AtomicReference<FutureTask<PlexusContainer>>();
+	private final ClassLoader mavenClassLoader = getClass().getClassLoader();
+	private final ClassLoader parentClassLoader = Thread.currentThread().getContextClassLoader();
+	private final ClasspathMetrics metrics;
+	private final BlockingQueue<ExtractorSession> sessions;
+	private final SimpleProjectBuilder simpleProjectBuilder = new SimpleProjectBuilder(this);
+	private final int sessionCount;
+
+	private MavenExecutionRequest requestTemplate;
+	private ClasspathFingerprint settingsFingerprint;
+	private String templateUserSettingsProperty;
+
+	// One per mode, online and offline
+	private final RepositoryCache[] repositoryCaches = new RepositoryCache[2];
+	private MavenExecutionRequest repositoryCacheTemplate;
+	private final List<ClasspathFingerprint> repositoryCacheInputs = new ArrayList<ClasspathFingerprint>();
+	private final Set<File> repositoryCacheFiles = new HashSet<File>();
 
     // Ensure M2_HOME variable is handled in a way similar to the mvn executable (script). To the extend possible.
     static {
@@ -47,8 +98,59 @@ public class MavenClasspathExtractor {
         }
     }
 
-    public MavenClasspathExtractor() throws PlexusContainerException {
-    	plexusContainer = buildPlexusContainer(getClass().getClassLoader(), null);
+    /**
+     * The Plexus container is not started until it is needed, or until {@link #warmUp()} is called.
+     */
+    public MavenClasspathExtractor() {
+        this(ClasspathMetrics.getInstance());
+    }
+
+    public MavenClasspathExtractor(ClasspathMetrics metrics) {
+        this(metrics, Integer.getInteger(MAVEN_SESSIONS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param sessions the number of resolutions that may run at the same time; more wait for a session to be free.
+     */
+    public MavenClasspathExtractor(ClasspathMetrics metrics, int sessions) {
+        if (sessions < 1) {
+            throw new IllegalArgumentException("At least one session is required");
+        }
+        this.metrics = metrics;
+        this.sessionCount = sessions;
+        this.sessions = new ArrayBlockingQueue<ExtractorSession>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            this.sessions.add(new ExtractorSession());
+        }
+        plexusContainer.set(newPlexusContainerTask());
+    }
+
+    private FutureTask<PlexusContainer> newPlexusContainerTask() {
+        return new FutureTask<PlexusContainer>(new Callable<PlexusContainer>() {
+            @Override
+            public PlexusContainer call() throws PlexusContainerException {
+                return startPlexusContainer();
+            }
+        });
+    }
+
+    PlexusContainer startPlexusContainer() throws PlexusContainerException {
+        long start = System.currentTimeMillis();
+        long metricsStart = metrics.start();
+        PlexusContainer container = buildPlexusContainer(mavenClassLoader, parentClassLoader);
+        metrics.record(ClasspathMetrics.CONTAINER, metricsStart);
+        logger.info("Plexus container started in " + (System.currentTimeMillis() - start)
+                + " ms, outside of FitNesse plugin loading");
+        return container;
+    }
+
+    /**
+     * Start the Plexus container on a background thread. Lookups done before it's ready wait for it.
+     */
+    public void warmUp() {
+        Thread thread = new Thread(plexusContainer.get(), "maven-classpath-warm-up");
+        thread.setDaemon(true);
+        thread.start();
     }
     
     public List<String> extractClasspathEntries(File pomFile) throws MavenClasspathExtractionException {
@@ -56,15 +158,65 @@ public class MavenClasspathExtractor {
 	}
 
     public List<String> extractClasspathEntries(File pomFile, String scope) throws MavenClasspathExtractionException {
+        return resolveClasspath(pomFile).getElements(scope);
+    }
+
+    /**
+     * Resolve the compile, runtime and test classpath in one go, along with a fingerprint of all files the outcome
+     * depends on.
+     */
+    public ResolvedClasspath resolveClasspath(File pomFile) throws MavenClasspathExtractionException {
+        return resolveClasspath(pomFile, false);
+    }
 
+    /**
+     * @param offline resolve strictly against the local repository, failing if anything is missing. Offline mode can
+     *                also be enabled by the "maven.classpath.offline" property or in settings.xml.
+     */
+    public ResolvedClasspath resolveClasspath(File pomFile, boolean offline) throws MavenClasspathExtractionException {
+        return resolveClasspath(pomFile, offline, false);
+    }
+
+    /**
+     * Resolve like {@link #resolveClasspath(File, boolean)}, but read the POM directly instead of having Maven's
+     * project builder model it, see {@link SimpleProjectBuilder}. POMs that need the project builder, e.g. because they
+     * have a parent, get it anyway. Gives the same classpath for the POMs it takes on, in less time and memory.
+     */
+    public ResolvedClasspath resolveClasspathLightweight(File pomFile, boolean offline) throws MavenClasspathExtractionException {
+        return resolveClasspath(pomFile, offline, true);
+    }
+
+    private ResolvedClasspath resolveClasspath(File pomFile, boolean offline, boolean lightweight) throws MavenClasspathExtractionException {
+        long resolutionStart = metrics.start();
+        ExtractorSession session = acquireSession();
         try {
-            MavenExecutionRequest mavenExecutionRequest = mavenConfiguration();
+            long start = metrics.start();
+            MavenExecutionRequest mavenExecutionRequest = sessionRequest(session, offline);
+            metrics.record(ClasspathMetrics.SETTINGS, start);
             mavenExecutionRequest.setBaseDirectory(pomFile.getParentFile());
             mavenExecutionRequest.setPom(pomFile);
 
-            ProjectBuildingResult projectBuildingResult = buildProject(pomFile, mavenExecutionRequest);
-            
-            return getClasspathForScope(projectBuildingResult, scope);
+            // Model building and dependency resolution are done apart, so they can be timed apart
+            ProjectBuildingRequest projectBuildingRequest = projectBuildingRequest(mavenExecutionRequest,
+                    session.getRepositorySession());
+            start = metrics.start();
+            MavenProject project = lightweight ? simpleProjectBuilder.build(pomFile, projectBuildingRequest) : null;
+            if (project == null) {
+                project = lookup(ProjectBuilder.class).build(pomFile, projectBuildingRequest).getProject();
+            }
+            metrics.record(ClasspathMetrics.PROJECT_MODEL, start);
+
+            start = metrics.start();
+            DependencyResolutionResult resolutionResult = resolveDependencies(project,
+                    lookup(ProjectDependenciesResolver.class), projectBuildingRequest.getRepositorySession());
+            metrics.record(ClasspathMetrics.DEPENDENCIES, start);
+            if (mavenExecutionRequest.isOffline()) {
+                failOnUnresolvedDependencies(pomFile, resolutionResult);
+            }
+
+            ResolvedClasspath classpath = resolvedClasspath(pomFile, project, resolutionResult, Collections.<File>emptyList());
+            metrics.record(ClasspathMetrics.RESOLUTION, resolutionStart);
+            return classpath;
 
         } catch (ComponentLookupException e) {
             throw new MavenClasspathExtractionException(e);
@@ -72,29 +224,308 @@ public class MavenClasspathExtractor {
             throw new MavenClasspathExtractionException(e);
         } catch (ProjectBuildingException e) {
             throw new MavenClasspathExtractionException(e);
-		}
+		} finally {
+            releaseSession(session);
+        }
+    }
+
+    /**
+     * Resolve the classpaths of all modules of a multi-module build. All modules are modelled once; dependencies
+     * between modules resolve to the modules' output directories instead of the local repository.
+     *
+     * @return the classpaths, by (absolute) module POM file
+     */
+    public Map<File, ResolvedClasspath> resolveReactor(File aggregatorPomFile) throws MavenClasspathExtractionException {
+        return resolveReactor(aggregatorPomFile, false);
+    }
+
+    /**
+     * @param offline resolve strictly against the local repository, see {@link #resolveClasspath(File, boolean)}.
+     */
+    public Map<File, ResolvedClasspath> resolveReactor(File aggregatorPomFile, boolean offline) throws MavenClasspathExtractionException {
+        long resolutionStart = metrics.start();
+        ExtractorSession session = acquireSession();
+        try {
+            long start = metrics.start();
+            MavenExecutionRequest mavenExecutionRequest = sessionRequest(session, offline);
+            metrics.record(ClasspathMetrics.SETTINGS, start);
+            mavenExecutionRequest.setBaseDirectory(aggregatorPomFile.getParentFile());
+            mavenExecutionRequest.setPom(aggregatorPomFile);
+
+            ProjectBuildingRequest projectBuildingRequest = projectBuildingRequest(mavenExecutionRequest,
+                    session.getRepositorySession());
+
+            start = metrics.start();
+            List<MavenProject> projects = new ArrayList<MavenProject>();
+            List<File> pomFiles = new ArrayList<File>();
+            for (ProjectBuildingResult result : lookup(ProjectBuilder.class).build(
+                    Collections.singletonList(aggregatorPomFile), true, projectBuildingRequest)) {
+                projects.add(result.getProject());
+                pomFiles.add(result.getPomFile());
+            }
+            metrics.record(ClasspathMetrics.PROJECT_MODEL, start);
+
+            mavenExecutionRequest.setWorkspaceReader(new ReactorWorkspaceReader(projects));
+            RepositorySystemSession repositorySystemSession = buildRepositorySystemSession(mavenExecutionRequest);
+            ProjectDependenciesResolver dependenciesResolver = lookup(ProjectDependenciesResolver.class);
+
+            Map<File, ResolvedClasspath> classpaths = new LinkedHashMap<File, ResolvedClasspath>();
+            for (MavenProject project : projects) {
+                start = metrics.start();
+                DependencyResolutionResult resolutionResult = resolveDependencies(project, dependenciesResolver, repositorySystemSession);
+                metrics.record(ClasspathMetrics.DEPENDENCIES, start);
+                if (mavenExecutionRequest.isOffline()) {
+                    failOnUnresolvedDependencies(project.getFile(), resolutionResult);
+                }
+                File pomFile = project.getFile().getAbsoluteFile();
+                // Changes to any module may affect its siblings
+                classpaths.put(pomFile, resolvedClasspath(pomFile, project, resolutionResult, pomFiles));
+            }
+            metrics.record(ClasspathMetrics.RESOLUTION, resolutionStart);
+            return classpaths;
+
+        } catch (ComponentLookupException e) {
+            throw new MavenClasspathExtractionException(e);
+        } catch (DependencyResolutionRequiredException e) {
+            throw new MavenClasspathExtractionException(e);
+        } catch (ProjectBuildingException e) {
+            throw new MavenClasspathExtractionException(e);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    /**
+     * @return the number of resolutions that can run at the same time.
+     */
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * Wait for a session no other resolution is using. Must be followed by {@link #releaseSession(ExtractorSession)}.
+     */
+    ExtractorSession acquireSession() throws MavenClasspathExtractionException {
+        long start = metrics.start();
+        try {
+            ExtractorSession session = sessions.take();
+            metrics.record(ClasspathMetrics.SESSION_WAIT, start);
+            return session;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MavenClasspathExtractionException("Interrupted while waiting for a resolution session", e);
+        }
+    }
+
+    void releaseSession(ExtractorSession session) {
+        sessions.add(session);
+    }
+
+    /**
+     * Bring the session up to date with the settings, repository cache and offline mode, then get a request of its
+     * own for a resolution.
+     */
+    private MavenExecutionRequest sessionRequest(ExtractorSession session, boolean offline)
+            throws MavenClasspathExtractionException, ComponentLookupException {
+        MavenExecutionRequest template = requestTemplate();
+        boolean offlineMode = offline || Boolean.getBoolean(MAVEN_OFFLINE) || template.isOffline();
+        RepositoryCache cache = repositoryCache(offlineMode);
+        String updateInterval = System.getProperty(MAVEN_UPDATE_INTERVAL);
+        if (!session.isBuiltFor(template, cache, offlineMode, updateInterval)) {
+            MavenExecutionRequest settings = DefaultMavenExecutionRequest.copy(template);
+            settings.setRepositoryCache(cache);
+            settings.setOffline(offlineMode);
+            session.rebuild(template, cache, offlineMode, updateInterval, settings,
+                    buildRepositorySystemSession(settings, updateInterval));
+        }
+        return session.newRequest();
+    }
+
+    private ProjectBuildingRequest projectBuildingRequest(MavenExecutionRequest mavenExecutionRequest,
+                                                          RepositorySystemSession repositorySystemSession) {
+        ProjectBuildingRequest projectBuildingRequest = mavenExecutionRequest.getProjectBuildingRequest();
+        projectBuildingRequest.setProcessPlugins(false);
+        projectBuildingRequest.setResolveDependencies(false);
+        projectBuildingRequest.setRepositorySession(repositorySystemSession);
+        return projectBuildingRequest;
+    }
+
+    private ResolvedClasspath resolvedClasspath(File pomFile, MavenProject project, DependencyResolutionResult resolutionResult,
+                                                List<File> otherInputs) throws DependencyResolutionRequiredException {
+        long start = metrics.start();
+        Map<String, List<String>> classpaths = getClasspaths(project);
+        // Kept so the tree can be looked at later without resolving again
+        DependencyTree tree = resolutionResult.getDependencyGraph() == null ? null
+                : DependencyTree.of(project.getGroupId() + ":" + project.getArtifactId() + ":" + project.getPackaging()
+                        + ":" + project.getVersion(), resolutionResult.getDependencyGraph());
+        metrics.record(ClasspathMetrics.CLASSPATH, start);
+
+        start = metrics.start();
+        List<File> artifactPomFiles = getArtifactPomFiles(project);
+        ClasspathFingerprint fingerprint = fingerprint(pomFile, project, otherInputs, artifactPomFiles);
+        repositoryCacheUsed(artifactPomFiles);
+        metrics.record(ClasspathMetrics.FINGERPRINT, start);
+
+        metrics.resolved(pomFile, project.getArtifacts().size(), classpaths.get(ResolvedClasspath.TEST_SCOPE).size());
+        return new ResolvedClasspath(classpaths, fingerprint, tree);
+    }
+
+    // Same as Maven's DefaultProjectBuilder does for projects built with resolveDependencies set
+    private DependencyResolutionResult resolveDependencies(MavenProject project, ProjectDependenciesResolver dependenciesResolver,
+                                                           RepositorySystemSession session) {
+        DependencyResolutionResult resolutionResult;
+        try {
+            resolutionResult = dependenciesResolver.resolve(new DefaultDependencyResolutionRequest(project, session));
+        } catch (DependencyResolutionException e) {
+            resolutionResult = e.getResult();
+        }
+
+        Set<Artifact> artifacts = new LinkedHashSet<Artifact>();
+        if (resolutionResult.getDependencyGraph() != null) {
+            RepositoryUtils.toArtifacts(artifacts, resolutionResult.getDependencyGraph().getChildren(),
+                    Collections.singletonList(project.getArtifact().getId()), null);
+
+            // Maven 2.x quirk: an artifact always points at the local repo, regardless whether resolved or not
+            LocalRepositoryManager lrm = session.getLocalRepositoryManager();
+            for (Artifact artifact : artifacts) {
+                if (!artifact.isResolved()) {
+                    String path = lrm.getPathForLocalArtifact(RepositoryUtils.toArtifact(artifact));
+                    artifact.setFile(new File(lrm.getRepository().getBasedir(), path));
+                }
+            }
+        }
+        project.setResolvedArtifacts(artifacts);
+        project.setArtifacts(artifacts);
+        return resolutionResult;
     }
 
-	private List<String> getClasspathForScope(
-			ProjectBuildingResult projectBuildingResult, String scope)
+    /**
+     * Offline, a missing artifact will not turn up by itself, so report it rather than leaving it off the classpath.
+     */
+    private void failOnUnresolvedDependencies(File pomFile, DependencyResolutionResult resolutionResult)
+            throws MavenClasspathExtractionException {
+        if (resolutionResult == null) {
+            return;
+        }
+        List<Exception> errors = new ArrayList<Exception>(resolutionResult.getCollectionErrors());
+        StringBuilder missing = new StringBuilder();
+        for (org.sonatype.aether.graph.Dependency dependency : resolutionResult.getUnresolvedDependencies()) {
+            missing.append(missing.length() == 0 ? "" : ", ").append(dependency.getArtifact());
+            errors.addAll(resolutionResult.getResolutionErrors(dependency));
+        }
+        if (missing.length() > 0 || !errors.isEmpty()) {
+            throw new MavenClasspathExtractionException("Unable to resolve " + pomFile + " offline"
+                    + (missing.length() > 0 ? ", missing from the local repository: " + missing : ""),
+                    errors.isEmpty() ? null : errors.get(0));
+        }
+    }
+
+	private Map<String, List<String>> getClasspaths(MavenProject project)
 			throws DependencyResolutionRequiredException {
-		MavenProject project = projectBuildingResult.getProject();
-		
-		if ("compile".equalsIgnoreCase(scope)) {
-			return project.getCompileClasspathElements();
-		} else if ("runtime".equalsIgnoreCase(scope)) {
-			return project.getRuntimeClasspathElements();
+		Map<String, List<String>> classpaths = new HashMap<String, List<String>>();
+		classpaths.put(ResolvedClasspath.COMPILE_SCOPE, project.getCompileClasspathElements());
+		classpaths.put(ResolvedClasspath.RUNTIME_SCOPE, project.getRuntimeClasspathElements());
+		classpaths.put(ResolvedClasspath.TEST_SCOPE, project.getTestClasspathElements());
+		return classpaths;
+	}
+
+	private ClasspathFingerprint fingerprint(File pomFile, MavenProject project, List<File> otherInputs,
+											 List<File> artifactPomFiles) {
+		List<File> inputs = new ArrayList<File>();
+		inputs.add(pomFile);
+		inputs.addAll(otherInputs);
+		for (MavenProject parent = project.getParent(); parent != null; parent = parent.getParent()) {
+			if (parent.getFile() != null) {
+				inputs.add(parent.getFile());
+			}
+		}
+		inputs.add(getGlobalSettingsFile());
+		inputs.add(getUserSettingsFile());
+		inputs.addAll(artifactPomFiles);
+		return new ClasspathFingerprint(inputs);
+	}
+
+	private List<File> getArtifactPomFiles(MavenProject project) {
+		List<File> artifactPomFiles = new ArrayList<File>();
+		for (Artifact artifact : project.getArtifacts()) {
+			File file = artifact.getFile();
+			if (file != null && file.isFile()) {
+				// The artifact's POM lives next to it in the local repository
+				artifactPomFiles.add(new File(file.getParentFile(),
+						artifact.getArtifactId() + "-" + artifact.getBaseVersion() + ".pom"));
+			}
+		}
+		return artifactPomFiles;
+	}
+
+	/**
+	 * Aether keeps the artifact descriptors (dependencies, managed versions) it reads in the session's repository
+	 * cache. Sharing that cache between resolutions means that, when a POM is edited, only the parts of the dependency
+	 * graph that are new are read from the local repository again; the unchanged subtrees come from memory. POMs
+	 * using the same libraries benefit as well.
+	 * <p>
+	 * The cache is dropped when the settings change or any artifact POM it was filled from changes, e.g. because a
+	 * snapshot was installed again. Online and offline resolutions have a cache each: what an online resolution
+	 * records about an artifact it could not find would otherwise keep an offline one from reporting it missing.
+	 */
+	synchronized RepositoryCache repositoryCache(boolean offline) throws MavenClasspathExtractionException {
+		MavenExecutionRequest template = requestTemplate();
+		boolean stale = template != repositoryCacheTemplate;
+		for (int i = 0; !stale && i < repositoryCacheInputs.size(); i++) {
+			stale = repositoryCacheInputs.get(i).isStale();
+		}
+		if (stale) {
+			repositoryCaches[0] = null;
+			repositoryCaches[1] = null;
+			repositoryCacheTemplate = template;
+			repositoryCacheInputs.clear();
+			repositoryCacheFiles.clear();
+		}
+		int mode = offline ? 1 : 0;
+		if (repositoryCaches[mode] == null) {
+			repositoryCaches[mode] = new DefaultRepositoryCache();
+		}
+		return repositoryCaches[mode];
+	}
+
+	private synchronized void repositoryCacheUsed(List<File> artifactPomFiles) {
+		List<File> newFiles = new ArrayList<File>();
+		for (File file : artifactPomFiles) {
+			if (repositoryCacheFiles.add(file)) {
+				newFiles.add(file);
+			}
+		}
+		if (!newFiles.isEmpty()) {
+			repositoryCacheInputs.add(new ClasspathFingerprint(newFiles));
 		}
-		return project.getTestClasspathElements();
-		
 	}
 
     // protected for test purposes
     protected MavenExecutionRequest mavenConfiguration() throws MavenClasspathExtractionException {
+        return DefaultMavenExecutionRequest.copy(requestTemplate());
+    }
+
+    /**
+     * The populated request is reused for every resolution, until one of the settings files changes or
+     * "maven.user.settings" points elsewhere. System properties and environment variables are captured when the
+     * template is built.
+     */
+    private synchronized MavenExecutionRequest requestTemplate() throws MavenClasspathExtractionException {
+        String userSettingsProperty = System.getProperty(MAVEN_USER_SETTINGS);
+        if (requestTemplate == null || settingsFingerprint.isStale()
+                || !equal(userSettingsProperty, templateUserSettingsProperty)) {
+            ClasspathFingerprint fingerprint = new ClasspathFingerprint(Arrays.asList(getGlobalSettingsFile(), getUserSettingsFile()));
+            requestTemplate = buildRequestTemplate();
+            settingsFingerprint = fingerprint;
+            templateUserSettingsProperty = userSettingsProperty;
+        }
+        return requestTemplate;
+    }
+
+    private MavenExecutionRequest buildRequestTemplate() throws MavenClasspathExtractionException {
         MavenExecutionRequest mavenExecutionRequest = new DefaultMavenExecutionRequest();
 
     	try {
-			MavenExecutionRequestPopulator executionRequestPopulator = lookup(MavenExecutionRequestPopulator.class);
 	        MavenExecutionRequestPopulator populator = lookup(MavenExecutionRequestPopulator.class);
 	
 	    	mavenExecutionRequest.setInteractiveMode(false);
@@ -104,7 +535,7 @@ public class MavenClasspathExtractor {
 	    	
 	        Settings settings = getSettings(mavenExecutionRequest);
 	
-	        executionRequestPopulator.populateFromSettings(mavenExecutionRequest, settings);
+	        populator.populateFromSettings(mavenExecutionRequest, settings);
 	        populator.populateDefaults(mavenExecutionRequest);
 	        
 	        logger.debug( "Local repository " + mavenExecutionRequest.getLocalRepository());
@@ -119,24 +550,17 @@ public class MavenClasspathExtractor {
         return mavenExecutionRequest;
     }
 
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
 	private Settings getSettings(MavenExecutionRequest mavenExecutionRequest)
 			throws ComponentLookupException, SettingsBuildingException {
 		
 		SettingsBuildingRequest settingsRequest = new DefaultSettingsBuildingRequest();
 
-		// TODO: should be configurable by system properties?
-		final File globalSettingsFile = MavenCli.DEFAULT_GLOBAL_SETTINGS_FILE;
-
-		//Allows users to set "maven.user.settings" if they use a custom settings.xml
-		File userSettingsFile;
-		if(System.getProperty(MAVEN_USER_SETTINGS) != null) {
-			userSettingsFile = new File(System.getProperty(MAVEN_USER_SETTINGS));
-		} else {
-			userSettingsFile = MavenCli.DEFAULT_USER_SETTINGS_FILE;
-		}
-
-		settingsRequest.setGlobalSettingsFile(globalSettingsFile);
-		settingsRequest.setUserSettingsFile(userSettingsFile);
+		settingsRequest.setGlobalSettingsFile(getGlobalSettingsFile());
+		settingsRequest.setUserSettingsFile(getUserSettingsFile());
 
 		settingsRequest.setSystemProperties(mavenExecutionRequest
 				.getSystemProperties());
@@ -166,6 +590,19 @@ public class MavenClasspathExtractor {
 		return settingsResult.getEffectiveSettings();
 	}
 
+	private File getGlobalSettingsFile() {
+		// TODO: should be configurable by system properties?
+		return MavenCli.DEFAULT_GLOBAL_SETTINGS_FILE;
+	}
+
+	private File getUserSettingsFile() {
+		//Allows users to set "maven.user.settings" if they use a custom settings.xml
+		if(System.getProperty(MAVEN_USER_SETTINGS) != null) {
+			return new File(System.getProperty(MAVEN_USER_SETTINGS));
+		}
+		return MavenCli.DEFAULT_USER_SETTINGS_FILE;
+	}
+
     private Properties getEnvVars() {
         Properties envVars = new Properties();
         boolean caseSensitive = !Os.isFamily(Os.FAMILY_WINDOWS);
@@ -193,12 +630,67 @@ public class MavenClasspathExtractor {
     }
     
     public <T> T lookup(Class<T> clazz) throws ComponentLookupException {
-        return plexusContainer.lookup(clazz);
+        return getPlexusContainer(clazz).lookup(clazz);
+    }
+
+    private PlexusContainer getPlexusContainer(Class<?> role) throws ComponentLookupException {
+        FutureTask<PlexusContainer> task = plexusContainer.get();
+        // No-op if the container is already built, or being built by another thread
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ComponentLookupException(e, role.getName(), null);
+        } catch (ExecutionException e) {
+            // Don't keep the failure; another thread may already have put a fresh task in place
+            plexusContainer.compareAndSet(task, newPlexusContainerTask());
+            throw new ComponentLookupException(e.getCause(), role.getName(), null);
+        }
     }
 
     private RepositorySystemSession buildRepositorySystemSession(MavenExecutionRequest mavenExecutionRequest) throws ComponentLookupException {
+        return buildRepositorySystemSession(mavenExecutionRequest, System.getProperty(MAVEN_UPDATE_INTERVAL));
+    }
+
+    private RepositorySystemSession buildRepositorySystemSession(MavenExecutionRequest mavenExecutionRequest,
+                                                                 String updateInterval) throws ComponentLookupException {
         DefaultMaven defaultMaven = (DefaultMaven) lookup(Maven.class);
-        return defaultMaven.newRepositorySession(mavenExecutionRequest);
+        RepositorySystemSession session = defaultMaven.newRepositorySession(mavenExecutionRequest);
+
+        if (session instanceof DefaultRepositorySystemSession) {
+            DefaultRepositorySystemSession defaultSession = (DefaultRepositorySystemSession) session;
+            Integer minutes = parseUpdateInterval(updateInterval);
+            if (minutes != null) {
+                defaultSession.setUpdatePolicy(RepositoryPolicy.UPDATE_POLICY_INTERVAL + ":" + minutes);
+            }
+            defaultSession.setConfigProperty(WAGON_THREADS,
+                    Integer.getInteger(MAVEN_DOWNLOAD_THREADS, DEFAULT_DOWNLOAD_THREADS));
+            defaultSession.setTransferListener(ChainedTransferListener.newInstance(
+                    new DownloadMetricsListener(metrics), session.getTransferListener()));
+        }
+        return session;
+    }
+
+    /**
+     * @return the number of minutes, or null to keep the repositories' own update policy.
+     */
+    private Integer parseUpdateInterval(String updateInterval) {
+        if (updateInterval == null) {
+            return null;
+        }
+        try {
+            int minutes = Integer.parseInt(updateInterval.trim());
+            if (minutes >= 0) {
+                return minutes;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        // A typo in a system property must not break every page using !pomFile
+        logger.warn("Ignoring " + MAVEN_UPDATE_INTERVAL + "=" + updateInterval
+                + ", which is not a number of minutes; using the repositories' update policy");
+        return null;
     }
 
     public static PlexusContainer buildPlexusContainer(ClassLoader mavenClassLoader, ClassLoader parent) throws PlexusContainerException {
@@ -0,0 +1,197 @@
+package fitnesse.wikitext.widgets;
+
+import fitnesse.components.TraversalListener;
+import fitnesse.wiki.WikiPage;
+import fitnesse.wiki.WikitextPage;
+import fitnesse.wikitext.parser.HtmlTranslator;
+import fitnesse.wikitext.parser.Symbol;
+import fitnesse.wikitext.parser.SymbolTreeWalker;
+import fitnesse.wikitext.parser.Translator;
+import fitnesse.wikitext.parser.WikiSourcePage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the classpath of every POM referred to by <code>!pomFile</code> in a set of wiki pages up front, e.g. before
+ * a nightly test run. Variables are expanded the same way they are when the page is rendered. Each distinct POM is
+ * resolved once, on a bounded number of threads, into the cache the pages are rendered from.
+ */
+public class MavenClasspathPreResolver {
+
+    private static final Logger LOG = Logger.getLogger(MavenClasspathPreResolver.class.getName());
+
+    private final int threads;
+
+    public MavenClasspathPreResolver() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public MavenClasspathPreResolver(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Pre-resolve all POMs used in a page and its descendants.
+     */
+    public List<Result> preResolve(WikiPage root) {
+        final List<WikiPage> pages = new ArrayList<WikiPage>();
+        root.getPageCrawler().traverse(new TraversalListener<WikiPage>() {
+            @Override
+            public void process(WikiPage page) {
+                pages.add(page);
+            }
+        });
+        return preResolve(pages);
+    }
+
+    public List<Result> preResolve(Collection<WikiPage> pages) {
+        Collection<Resolution> resolutions = findResolutions(pages);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, resolutions.size())));
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (final Resolution resolution : resolutions) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return resolve(resolution);
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<Result>(futures.size());
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while pre-resolving classpaths", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to pre-resolve classpaths", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the distinct POM files used in the pages, by the mode (<code>@offline</code>, <code>@lightweight</code>)
+     * they are resolved in, along with the symbol type that resolves them.
+     */
+    Collection<Resolution> findResolutions(Collection<WikiPage> pages) {
+        final Map<String, Resolution> resolutions = new LinkedHashMap<String, Resolution>();
+        for (WikiPage page : pages) {
+            if (!(page instanceof WikitextPage)) {
+                continue;
+            }
+            WikitextPage wikitextPage = (WikitextPage) page;
+            final Translator translator = new HtmlTranslator(new WikiSourcePage(page), wikitextPage.getParsingPage());
+            wikitextPage.getSyntaxTree().walkPreOrder(new SymbolTreeWalker() {
+                @Override
+                public boolean visit(Symbol node) {
+                    if (node.getType() instanceof MavenClasspathSymbolType) {
+                        MavenClasspathSymbolType symbolType = (MavenClasspathSymbolType) node.getType();
+                        MavenClasspathSymbolType.ParsedSymbol parsedSymbol = symbolType.getParsedSymbol(translator, node);
+                        Resolution resolution = new Resolution(parsedSymbol.getPomFile().getAbsoluteFile(),
+                                parsedSymbol.isOffline(), parsedSymbol.isLightweight(), symbolType);
+                        if (!resolutions.containsKey(resolution.getKey())) {
+                            resolutions.put(resolution.getKey(), resolution);
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean visitChildren(Symbol node) {
+                    return true;
+                }
+            });
+        }
+        return resolutions.values();
+    }
+
+    private Result resolve(Resolution resolution) {
+        File pomFile = resolution.pomFile;
+        long start = System.currentTimeMillis();
+        try {
+            resolution.symbolType.getResolvedClasspath(pomFile, resolution.offline, resolution.lightweight);
+            Result result = new Result(pomFile, System.currentTimeMillis() - start, null);
+            LOG.info("Resolved " + resolution.getKey() + " in " + result.getMillis() + " ms");
+            return result;
+        } catch (MavenClasspathExtractionException e) {
+            Result result = new Result(pomFile, System.currentTimeMillis() - start, e);
+            LOG.warning("Unable to resolve " + resolution.getKey() + " (" + result.getMillis() + " ms): " + e.getMessage());
+            return result;
+        }
+    }
+
+    /**
+     * A POM in the mode a page resolves it in. Each mode is cached on its own, so each is pre-resolved.
+     */
+    static class Resolution {
+        private final File pomFile;
+        private final boolean offline;
+        private final boolean lightweight;
+        private final MavenClasspathSymbolType symbolType;
+
+        Resolution(File pomFile, boolean offline, boolean lightweight, MavenClasspathSymbolType symbolType) {
+            this.pomFile = pomFile;
+            this.offline = offline;
+            this.lightweight = lightweight;
+            this.symbolType = symbolType;
+        }
+
+        String getKey() {
+            return pomFile.getPath() + (offline ? "@" + MavenClasspathSymbolType.ParsedSymbol.OFFLINE_OPTION : "")
+                    + (lightweight ? "@" + MavenClasspathSymbolType.ParsedSymbol.LIGHTWEIGHT_OPTION : "");
+        }
+    }
+
+    /**
+     * Outcome of the pre-resolution of one POM.
+     */
+    public static class Result {
+        private final File pomFile;
+        private final long millis;
+        private final MavenClasspathExtractionException error;
+
+        Result(File pomFile, long millis, MavenClasspathExtractionException error) {
+            this.pomFile = pomFile;
+            this.millis = millis;
+            this.error = error;
+        }
+
+        public File getPomFile() {
+            return pomFile;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        public MavenClasspathExtractionException getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return pomFile + ": " + (isSuccess() ? "resolved" : "failed (" + error.getMessage() + ")") + " in " + millis + " ms";
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package fitnesse.wikitext.widgets;
+
+import fitnesse.FitNesseContext;
+import fitnesse.Responder;
+import fitnesse.http.Request;
+import fitnesse.http.Response;
+import fitnesse.http.SimpleResponse;
+
+import java.io.File;
+
+/**
+ * Serves Maven classpath information. Register it in plugins.properties:
+ * <pre>
+ *     Responders = mavenClasspath:fitnesse.wikitext.widgets.MavenClasspathResponder
+ * </pre>
+ * and request <code>?responder=mavenClasspath</code> for the resolution metrics as plain text, or
+ * <code>?responder=mavenClasspath&amp;view=classpath&amp;pom=...&amp;scope=...</code> for the full classpath list
+ * behind a summary.
+ * <p>
+ * The dependency tree a classpath was resolved from is served with <code>view=tree</code> (as
+ * <code>mvn dependency:tree</code> prints it) or <code>view=json</code>, for <code>pom=...</code>. Instead of a POM
+ * file, the fingerprint id shown with a tree can be given, to get at the tree of an earlier resolution.
+ * <code>view=diff&amp;from=...&amp;to=...</code> lists the artifacts that differ between two trees. Only classpaths
+ * resolved before are served; nothing is resolved on behalf of these requests.
+ */
+public class MavenClasspathResponder implements Responder {
+
+    public static final String VIEW_INPUT = "view";
+    public static final String METRICS_VIEW = "metrics";
+    public static final String CLASSPATH_VIEW = "classpath";
+    public static final String POM_INPUT = "pom";
+    public static final String SCOPE_INPUT = "scope";
+    public static final String TREE_VIEW = "tree";
+    public static final String JSON_VIEW = "json";
+    public static final String DIFF_VIEW = "diff";
+    public static final String FROM_INPUT = "from";
+    public static final String TO_INPUT = "to";
+
+    private final ClasspathMetrics metrics;
+    private final MavenClasspathSymbolType symbolType;
+
+    public MavenClasspathResponder() {
+        this(ClasspathMetrics.getInstance(), null);
+    }
+
+    MavenClasspathResponder(ClasspathMetrics metrics) {
+        this(metrics, null);
+    }
+
+    /**
+     * @param symbolType where classpaths are cached; null for the symbol type FitNesse loaded.
+     */
+    MavenClasspathResponder(ClasspathMetrics metrics, MavenClasspathSymbolType symbolType) {
+        this.metrics = metrics;
+        this.symbolType = symbolType;
+    }
+
+    @Override
+    public Response makeResponse(FitNesseContext context, Request request) {
+        String view = request.hasInput(VIEW_INPUT) ? (String) request.getInput(VIEW_INPUT) : METRICS_VIEW;
+        if (METRICS_VIEW.equals(view)) {
+            return textResponse(200, metrics.toText());
+        }
+        if (CLASSPATH_VIEW.equals(view)) {
+            return classpathResponse(request);
+        }
+        if (TREE_VIEW.equals(view) || JSON_VIEW.equals(view)) {
+            return treeResponse(request, JSON_VIEW.equals(view));
+        }
+        if (DIFF_VIEW.equals(view)) {
+            return diffResponse(request);
+        }
+        return textResponse(400, "Unknown view: " + view + "\n");
+    }
+
+    private MavenClasspathSymbolType classpaths() {
+        return symbolType != null ? symbolType : MavenClasspathSymbolType.getInstance();
+    }
+
+    private Response classpathResponse(Request request) {
+        MavenClasspathSymbolType classpaths = classpaths();
+        if (!request.hasInput(POM_INPUT) || classpaths == null) {
+            return textResponse(400, "No POM file given, or no Maven classpath symbol type loaded\n");
+        }
+        String scope = request.hasInput(SCOPE_INPUT) ? (String) request.getInput(SCOPE_INPUT) : MavenClasspathExtractor.DEFAULT_SCOPE;
+        String markup = classpaths.renderCachedClasspath(new File((String) request.getInput(POM_INPUT)), scope);
+        if (markup == null) {
+            return textResponse(404, "Classpath not resolved (yet), view a page using the POM first\n");
+        }
+        SimpleResponse response = new SimpleResponse(200);
+        response.setContentType(Response.Format.HTML);
+        response.setContent(markup);
+        return response;
+    }
+
+    private Response treeResponse(Request request, boolean json) {
+        MavenClasspathSymbolType classpaths = classpaths();
+        if (!request.hasInput(POM_INPUT) || classpaths == null) {
+            return textResponse(400, "No POM file given, or no Maven classpath symbol type loaded\n");
+        }
+        String pomOrFingerprint = (String) request.getInput(POM_INPUT);
+        ResolvedClasspath classpath = classpaths.findResolvedClasspath(pomOrFingerprint);
+        if (classpath == null || classpath.getDependencyTree() == null) {
+            return textResponse(404, "No dependency tree known for " + pomOrFingerprint + ", view a page using the POM first\n");
+        }
+        String fingerprint = classpath.getFingerprint().getId();
+        if (json) {
+            SimpleResponse response = new SimpleResponse(200);
+            response.setContentType("application/json; charset=utf-8");
+            response.setContent("{\"fingerprint\":\"" + fingerprint + "\",\"tree\":"
+                    + classpath.getDependencyTree().toJson() + "}");
+            return response;
+        }
+        return textResponse(200, "fingerprint " + fingerprint + "\n" + classpath.getDependencyTree().toText());
+    }
+
+    private Response diffResponse(Request request) {
+        MavenClasspathSymbolType classpaths = classpaths();
+        if (!request.hasInput(FROM_INPUT) || !request.hasInput(TO_INPUT) || classpaths == null) {
+            return textResponse(400, "Give the POM files or fingerprints to compare as from and to, with a Maven classpath symbol type loaded\n");
+        }
+        StringBuilder text = new StringBuilder();
+        DependencyTree[] trees = new DependencyTree[2];
+        String[] inputs = { FROM_INPUT, TO_INPUT };
+        for (int i = 0; i < inputs.length; i++) {
+            String pomOrFingerprint = (String) request.getInput(inputs[i]);
+            ResolvedClasspath classpath = classpaths.findResolvedClasspath(pomOrFingerprint);
+            if (classpath == null || classpath.getDependencyTree() == null) {
+                return textResponse(404, "No dependency tree known for " + pomOrFingerprint + "\n");
+            }
+            trees[i] = classpath.getDependencyTree();
+            text.append(i == 0 ? "--- " : "+++ ").append(trees[i].getRoot())
+                    .append(" (fingerprint ").append(classpath.getFingerprint().getId()).append(")\n");
+        }
+        for (String difference : trees[0].diff(trees[1])) {
+            text.append(difference).append('\n');
+        }
+        return textResponse(200, text.toString());
+    }
+
+    private Response textResponse(int status, String content) {
+        SimpleResponse response = new SimpleResponse(status);
+        // Response.Format.TEXT is "text/text", which scrapers do not recognize
+        response.setContentType("text/plain; charset=utf-8");
+        response.setContent(content);
+        return response;
+    }
+}
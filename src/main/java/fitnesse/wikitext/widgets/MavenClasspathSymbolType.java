@@ -1,5 +1,6 @@
 package fitnesse.wikitext.widgets;
 
+import fitnesse.ConfigurationParameter;
 import fitnesse.wikitext.parser.Matcher;
 import fitnesse.wikitext.parser.Maybe;
 import fitnesse.wikitext.parser.Parser;
@@ -11,14 +12,21 @@ import fitnesse.wikitext.parser.SymbolProvider;
 import fitnesse.wikitext.parser.SymbolType;
 import fitnesse.wikitext.parser.Translation;
 import fitnesse.wikitext.parser.Translator;
-import org.codehaus.plexus.PlexusContainerException;
 
 import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * FitNesse SymbolType implementation. Enables Maven classpath integration for FitNesse.
@@ -27,65 +35,433 @@ public class MavenClasspathSymbolType extends SymbolType implements Rule, Transl
     /** System property to disable this Symbol (if given value true). */
     public static final String DISABLE_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.Disable";
 
-    private MavenClasspathExtractor mavenClasspathExtractor;
+    /** System property to start Maven in the background while FitNesse is loading (if given value true). */
+    public static final String WARM_UP_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.WarmUp";
 
-    private final Map<String, List<String>> classpathCache = new HashMap<String, List<String>>();
+    private volatile MavenClasspathExtractor mavenClasspathExtractor;
 
-    public MavenClasspathSymbolType() throws PlexusContainerException {
+    /**
+     * System property pointing to the aggregator POM of a multi-module build. POMs of its modules are resolved
+     * together, with dependencies between modules resolving to their output directories.
+     */
+    public static final String REACTOR_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.Reactor";
+
+    /** System property with the maximum number of POMs to keep classpaths of; 0 for no limit. */
+    public static final String CACHE_SIZE_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.CacheSize";
+
+    /** System property with the maximum total number of classpath elements to keep; 0 for no limit. */
+    public static final String CACHE_WEIGHT_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.CacheWeight";
+
+    /** System property with the number of minutes after which a classpath is resolved again, even if its POM is unchanged. */
+    public static final String CACHE_EXPIRY_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.CacheExpiry";
+
+    /** System property to index the jars of shared class loaders up front (if given value true). */
+    public static final String INDEX_JARS_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.IndexJars";
+
+    /**
+     * System property to render classpaths as a summary (if given value "summary"): the number of entries and their
+     * total size, with a link to the full list. Use <code>@summary</code> or <code>@full</code> to choose per page.
+     */
+    public static final String RENDER_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.Render";
+
+    /**
+     * System property with a location shared by all FitNesse servers serving this wiki, e.g. a directory on a network
+     * file system. A POM is then resolved by one of the servers, the others use its outcome.
+     */
+    public static final String SHARED_CACHE_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.SharedCache";
+
+    /** System property with the {@link SharedClasspathStore} implementation for the shared location; a directory by default. */
+    public static final String SHARED_CACHE_CLASS_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.SharedCacheClass";
+
+    /**
+     * System property with the number of seconds between checks for changed POMs. Changed POMs are then resolved in the
+     * background, before anyone asks for them. Not checked by default.
+     */
+    public static final String WATCH_INTERVAL_KEY = "fitnesse.wikitext.widgets.MavenClasspathSymbolType.WatchInterval";
+
+    private static final Logger LOG = Logger.getLogger(MavenClasspathSymbolType.class.getName());
+
+    private static final int DEFAULT_CACHE_SIZE = 500;
+    private static final int IDLE_CLASS_LOADERS = 4;
+    private static final int RESOLUTION_HISTORY = 32;
+
+    /** Name of the file, in the FitNesse root directory, that resolved classpaths are persisted to. */
+    public static final String STORE_FILE = ".mavenClasspathCache";
+
+    private static volatile MavenClasspathSymbolType instance;
+
+    private final ClasspathCache classpathCache;
+    private final ClasspathWatcher watcher;
+    private final boolean summaryByDefault = ParsedSymbol.SUMMARY_OPTION.equalsIgnoreCase(System.getProperty(RENDER_KEY));
+    private final ClassLoaderCache classLoaderCache =
+            new ClassLoaderCache(Boolean.getBoolean(INDEX_JARS_KEY), IDLE_CLASS_LOADERS);
+
+    // Dependency trees of recent resolutions by fingerprint, for comparing a classpath with what it was before
+    private final Map<String, ResolvedClasspath> resolutionHistory =
+            Collections.synchronizedMap(new ResolutionHistory());
+
+    private final File reactorPomFile;
+    private final Object reactorLock = new Object();
+    private volatile Set<File> reactorModules;
+
+    public MavenClasspathSymbolType() {
+        this(new ClasspathCache());
+    }
+
+    /**
+     * Constructor used by FitNesse's plugin loader. Resolved classpaths are persisted in the FitNesse root, so they
+     * survive a restart.
+     */
+    public MavenClasspathSymbolType(Properties properties) {
+        this(new ClasspathCache(new ClasspathStore(storeFile(properties))));
+    }
+
+    private MavenClasspathSymbolType(ClasspathCache classpathCache) {
         super("MavenClasspathSymbolType");
+        this.classpathCache = classpathCache;
+        classpathCache.setMaximumSize(Integer.getInteger(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE));
+        classpathCache.setMaximumWeight(Long.getLong(CACHE_WEIGHT_KEY, 0L));
+        classpathCache.setExpireAfterWrite(Long.getLong(CACHE_EXPIRY_KEY, 0L), TimeUnit.MINUTES);
+        classpathCache.setSharedStore(sharedStore());
+        long watchInterval = Long.getLong(WATCH_INTERVAL_KEY, 0L);
+        if (watchInterval > 0) {
+            watcher = new ClasspathWatcher(classpathCache);
+            watcher.start(watchInterval, TimeUnit.SECONDS);
+        } else {
+            watcher = null;
+        }
+        ClasspathMetrics.registerMBean();
+
+        String reactorProperty = System.getProperty(REACTOR_KEY);
+        reactorPomFile = reactorProperty != null ? new File(reactorProperty).getAbsoluteFile() : null;
 
         String disablePropertyValue = System.getProperty(DISABLE_KEY);
         if (!"true".equalsIgnoreCase(disablePropertyValue)) {
             this.mavenClasspathExtractor = new MavenClasspathExtractor();
+            if ("true".equalsIgnoreCase(System.getProperty(WARM_UP_KEY))) {
+                mavenClasspathExtractor.warmUp();
+            }
         }
 
         wikiMatcher(new Matcher().startLineOrCell().string("!pomFile"));
 
         wikiRule(this);
         htmlTranslation(this);
+        MavenClasspathSymbolType previous;
+        synchronized (MavenClasspathSymbolType.class) {
+            previous = instance;
+            instance = this;
+        }
+        // Only the symbol type loaded last is used by FitNesse; don't leave the watchers of earlier ones running
+        if (previous != null) {
+            previous.stopWatching();
+        }
+    }
+
+    /**
+     * @return the symbol type loaded last, for {@link MavenClasspathResponder}; null if none is.
+     */
+    static MavenClasspathSymbolType getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the watcher of the cached classpaths' inputs, or null if they are not watched.
+     */
+    ClasspathWatcher getWatcher() {
+        return watcher;
     }
 
+    void stopWatching() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    private static SharedClasspathStore sharedStore() {
+        String location = System.getProperty(SHARED_CACHE_KEY);
+        if (location == null) {
+            return null;
+        }
+        String className = System.getProperty(SHARED_CACHE_CLASS_KEY, SharedClasspathDirectory.class.getName());
+        try {
+            return Class.forName(className).asSubclass(SharedClasspathStore.class)
+                    .getConstructor(String.class).newInstance(location);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Unable to share classpaths through " + className + " at " + location
+                    + ", resolving everything locally", e);
+            return null;
+        }
+    }
+
+    private static File storeFile(Properties properties) {
+        String rootPath = properties.getProperty(ConfigurationParameter.ROOT_PATH.getKey(), ".");
+        String rootDirectory = properties.getProperty(ConfigurationParameter.ROOT_DIRECTORY.getKey(), "FitNesseRoot");
+        return new File(new File(rootPath, rootDirectory), STORE_FILE);
+    }
+
+    /**
+     * The markup is kept with the resolved classpath, so page views render it only once per resolution.
+     */
     @Override
     public String toTarget(Translator translator, Symbol symbol) {
-        List<String> classpathElements = null;
         ParsedSymbol parsedSymbol = getParsedSymbol(translator, symbol);
-        StringBuilder classpathForRender = new StringBuilder("<p class='meta'>Maven classpath [file: ")
+        ResolvedClasspath classpath;
+        try {
+            classpath = getResolvedClasspath(parsedSymbol.getPomFile(), parsedSymbol.isOffline(), parsedSymbol.isLightweight());
+        } catch (MavenClasspathExtractionException e) {
+            return renderHeader(parsedSymbol).append("<ul class='meta'><li class='error'>Unable to parse POM file: ")
+                    .append(e.getMessage()).append("</li></ul>").toString();
+        }
+
+        boolean summary = parsedSymbol.isSummary(summaryByDefault);
+        String key = (summary ? "summary:" : "full:") + parsedSymbol.getText();
+        String rendering = classpath.getRendering(key);
+        if (rendering == null) {
+            List<String> elements = classpath.getElements(parsedSymbol.getScope());
+            rendering = summary ? renderSummary(parsedSymbol, elements) : renderList(renderHeader(parsedSymbol), elements);
+            classpath.putRendering(key, rendering);
+        }
+        return rendering;
+    }
+
+    private static StringBuilder renderHeader(ParsedSymbol parsedSymbol) {
+        return renderHeader(parsedSymbol, "");
+    }
+
+    /**
+     * @param detail markup to show after the colon that ends the header.
+     */
+    private static StringBuilder renderHeader(ParsedSymbol parsedSymbol, String detail) {
+        return new StringBuilder("<p class='meta'>Maven classpath [file: ")
                 .append(parsedSymbol.getPomFile())
                 .append(", scope: ")
                 .append(parsedSymbol.getScope())
-                .append("]:</p>")
-                .append("<ul class='meta'>");
+                .append("]:")
+                .append(detail)
+                .append("</p>");
+    }
+
+    private static String renderList(StringBuilder markup, List<String> elements) {
+        markup.append("<ul class='meta'>");
+        for (String element : elements) {
+            markup.append("<li>").append(element).append("</li>");
+        }
+        return markup.append("</ul>").toString();
+    }
+
+    private static String renderSummary(ParsedSymbol parsedSymbol, List<String> elements) {
+        long size = 0;
+        for (String element : elements) {
+            // Output directories count as nothing, walking them would cost more than it tells
+            size += new File(element).length();
+        }
+        String detail = new StringBuilder(" ")
+                .append(elements.size()).append(elements.size() == 1 ? " entry, " : " entries, ")
+                .append(formatSize(size))
+                .append(" <a href='?responder=mavenClasspath&amp;view=").append(MavenClasspathResponder.CLASSPATH_VIEW)
+                .append("&amp;pom=").append(urlEncode(parsedSymbol.getPomFile().getAbsolutePath()))
+                .append("&amp;scope=").append(urlEncode(parsedSymbol.getScope()))
+                .append("'>show all</a>")
+                .toString();
+        return renderHeader(parsedSymbol, detail).toString();
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ENGLISH, "%.1f KB", bytes / 1024.0);
+        }
+        return String.format(Locale.ENGLISH, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String urlEncode(String value) {
         try {
-            classpathElements = getClasspathElements(parsedSymbol);
-            for (String element : classpathElements) {
-                classpathForRender.append("<li>").append(element).append("</li>");
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Render the full classpath list of a POM whose classpath is known already, for the summary's "show all" link.
+     * Nothing is resolved on behalf of the request.
+     *
+     * @return the markup, or null if the classpath of the POM is not in the cache.
+     */
+    String renderCachedClasspath(File pomFile, String scope) {
+        ResolvedClasspath classpath = getCachedClasspath(pomFile);
+        if (classpath == null) {
+            return null;
+        }
+        String key = "list:" + scope;
+        String rendering = classpath.getRendering(key);
+        if (rendering == null) {
+            rendering = renderList(new StringBuilder(), classpath.getElements(scope));
+            classpath.putRendering(key, rendering);
+        }
+        return rendering;
+    }
+
+    /**
+     * Find a classpath resolved before, for looking at its dependency tree. Nothing is resolved on behalf of the
+     * request.
+     *
+     * @param pomOrFingerprint a POM file whose classpath is in the cache, or the {@link ClasspathFingerprint#getId() id}
+     *                         of the fingerprint of a classpath in the cache or resolved recently.
+     * @return the classpath, or null if it's not known (anymore).
+     */
+    ResolvedClasspath findResolvedClasspath(String pomOrFingerprint) {
+        ResolvedClasspath classpath = getCachedClasspath(new File(pomOrFingerprint));
+        if (classpath != null) {
+            return classpath;
+        }
+        classpath = resolutionHistory.get(pomOrFingerprint);
+        if (classpath != null) {
+            return classpath;
+        }
+        // Classpaths read from the store were not resolved by this server
+        for (ResolvedClasspath resolved : classpathCache.getResolved().values()) {
+            if (resolved.getFingerprint().getId().equals(pomOrFingerprint)) {
+                return resolved;
             }
-        } catch (MavenClasspathExtractionException e) {
-            classpathForRender.append("<li class='error'>Unable to parse POM file: ")
-                            .append(e.getMessage()).append("</li>");
         }
+        return null;
+    }
+
+    private ResolvedClasspath remember(ResolvedClasspath classpath) {
+        if (classpath != null && classpath.getDependencyTree() != null) {
+            resolutionHistory.put(classpath.getFingerprint().getId(), classpath.withoutElements());
+        }
+        return classpath;
+    }
 
-        classpathForRender.append("</ul>");
-        return classpathForRender.toString();
+    private List<String> getClasspathElements(final ParsedSymbol parsedSymbol) throws MavenClasspathExtractionException {
+        // One resolution serves all scopes of a POM
+        return getResolvedClasspath(parsedSymbol.getPomFile(), parsedSymbol.isOffline(), parsedSymbol.isLightweight()).getElements(parsedSymbol.getScope());
+    }
+
+    ResolvedClasspath getResolvedClasspath(File pomFile) throws MavenClasspathExtractionException {
+        return getResolvedClasspath(pomFile, false);
+    }
 
+    /**
+     * @param offline resolve against the local repository only, see {@link MavenClasspathExtractor#resolveClasspath(File, boolean)}.
+     */
+    ResolvedClasspath getResolvedClasspath(File pomFile, boolean offline) throws MavenClasspathExtractionException {
+        return getResolvedClasspath(pomFile, offline, false);
     }
 
-    @SuppressWarnings("unchecked")
-	private List<String> getClasspathElements(final ParsedSymbol parsedSymbol) throws MavenClasspathExtractionException {
-        String symbol = parsedSymbol.symbol;
-        if(classpathCache.containsKey(symbol)) {
-    		return classpathCache.get(symbol);
-    	} else {
-    		List<String> classpath = Collections.emptyList();
-            if (mavenClasspathExtractor != null) {
-                classpath = mavenClasspathExtractor.extractClasspathEntries(parsedSymbol.getPomFile(), parsedSymbol.getScope());
+    /**
+     * @param lightweight read the POM directly rather than through Maven's project builder, see
+     *                    {@link MavenClasspathExtractor#resolveClasspathLightweight(File, boolean)}.
+     */
+    ResolvedClasspath getResolvedClasspath(File pomFile, boolean offline, boolean lightweight)
+            throws MavenClasspathExtractionException {
+        MavenClasspathExtractor extractor = mavenClasspathExtractor;
+        if (extractor == null) {
+            return ResolvedClasspath.empty();
+        }
+        File absolutePomFile = pomFile.getAbsoluteFile();
+        return classpathCache.get(cacheKey(absolutePomFile, offline, lightweight),
+                resolver(extractor, absolutePomFile, offline, lightweight));
+    }
+
+    /**
+     * @return how a POM's classpath is resolved, also when the cache resolves it again in the background.
+     */
+    private ClasspathCache.Resolver resolver(final MavenClasspathExtractor extractor, final File absolutePomFile,
+                                             final boolean offline, final boolean lightweight) {
+        return new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+                // A manifest written at build time spares starting Maven at all
+                ResolvedClasspath manifest = ClasspathManifest.read(absolutePomFile);
+                if (manifest != null) {
+                    return manifest;
+                }
+                // A reactor resolution models every module with the project builder, which is what lightweight
+                // resolution avoids; lightweight POMs are resolved on their own
+                if (!lightweight && reactorPomFile != null
+                        && (reactorModules == null || reactorModules.contains(absolutePomFile))) {
+                    ResolvedClasspath classpath = resolveReactorModule(extractor, absolutePomFile, offline);
+                    if (classpath != null) {
+                        return classpath;
+                    }
+                }
+                if (lightweight) {
+                    return remember(extractor.resolveClasspathLightweight(absolutePomFile, offline));
+                }
+                return remember(offline ? extractor.resolveClasspath(absolutePomFile, true) : extractor.resolveClasspath(absolutePomFile));
             }
-            classpathCache.put(symbol, classpath);
-            return classpath;
-    	}
+        };
+    }
+
+    /**
+     * Key of a POM's classpath in the cache: the POM file itself for a regular resolution. Offline and lightweight
+     * resolutions are kept apart: a regular resolution may have left out artifacts that an offline one must report
+     * missing, and what a page shows must not depend on which mode happened to resolve the POM first.
+     */
+    private static Object cacheKey(File absolutePomFile, boolean offline, boolean lightweight) {
+        if (!offline && !lightweight) {
+            return absolutePomFile;
+        }
+        return absolutePomFile.getPath() + (offline ? "@" + ParsedSymbol.OFFLINE_OPTION : "")
+                + (lightweight ? "@" + ParsedSymbol.LIGHTWEIGHT_OPTION : "");
+    }
+
+    /**
+     * @return the up to date classpath of a POM in the cache, however it was resolved, or null if there is none.
+     */
+    private ResolvedClasspath getCachedClasspath(File pomFile) {
+        File absolutePomFile = pomFile.getAbsoluteFile();
+        for (boolean lightweight : new boolean[] { false, true }) {
+            for (boolean offline : new boolean[] { false, true }) {
+                ResolvedClasspath classpath = classpathCache.getIfPresent(cacheKey(absolutePomFile, offline, lightweight));
+                if (classpath != null) {
+                    return classpath;
+                }
+            }
+        }
+        return null;
     }
 
-    private ParsedSymbol getParsedSymbol(Translator translator, Symbol symbol) {
+    /**
+     * Resolve the whole reactor and cache the classpaths of all its modules, unless another thread just did so.
+     * Online and offline resolutions of the reactor are cached apart, like those of a single POM.
+     *
+     * @return the module's classpath, or null if the POM is not part of the reactor.
+     */
+    private ResolvedClasspath resolveReactorModule(MavenClasspathExtractor extractor, File pomFile, boolean offline)
+            throws MavenClasspathExtractionException {
+        synchronized (reactorLock) {
+            ResolvedClasspath classpath = classpathCache.getIfPresent(cacheKey(pomFile, offline, false));
+            if (classpath != null) {
+                return classpath;
+            }
+            Map<File, ResolvedClasspath> modules = extractor.resolveReactor(reactorPomFile, offline);
+            reactorModules = modules.keySet();
+            for (Map.Entry<File, ResolvedClasspath> module : modules.entrySet()) {
+                remember(module.getValue());
+                if (!module.getKey().equals(pomFile)) {
+                    // With a resolver of their own, so changed siblings are resolved again in the background too
+                    classpathCache.put(cacheKey(module.getKey(), offline, false), module.getValue(),
+                            resolver(extractor, module.getKey(), offline, false));
+                }
+            }
+            return modules.get(pomFile);
+        }
+    }
+
+    /**
+     * Get a class loader for the classpath of a POM, shared with everyone using the same classpath, e.g. for running
+     * tests in-process. Release the lease once done with it.
+     */
+    public ClassLoaderCache.Lease acquireClassLoader(File pomFile, String scope, ClassLoader parent)
+            throws MavenClasspathExtractionException {
+        return classLoaderCache.acquire(getResolvedClasspath(pomFile), scope, parent);
+    }
+
+    ParsedSymbol getParsedSymbol(Translator translator, Symbol symbol) {
         return new ParsedSymbol(translator.translate(symbol.childAt(0)));
     }
 
@@ -108,6 +484,7 @@ public class MavenClasspathSymbolType extends SymbolType implements Rule, Transl
         this.mavenClasspathExtractor = mavenClasspathExtractor;
     }
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public Collection<String> providePaths(Translator translator, Symbol symbol) {
         try {
@@ -117,15 +494,38 @@ public class MavenClasspathSymbolType extends SymbolType implements Rule, Transl
         }
     }
 	
+    /**
+     * The most recently used resolutions, at most {@link #RESOLUTION_HISTORY} of them.
+     */
+    private static class ResolutionHistory extends LinkedHashMap<String, ResolvedClasspath> {
+        private static final long serialVersionUID = 1L;
+
+        ResolutionHistory() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ResolvedClasspath> eldest) {
+            return size() > RESOLUTION_HISTORY;
+        }
+    }
+
 	/**
-	 * Turn the pom+scope key into a comparable object, using the pom's last modified timestamp as
-	 * cache key.
+	 * Split the symbol in a POM file, a scope and options, e.g. <code>pom.xml@compile@offline</code>. Options are
+	 * <code>offline</code>, <code>summary</code>, <code>full</code> and <code>lightweight</code>.
 	 */
 	static class ParsedSymbol {
+		static final String OFFLINE_OPTION = "offline";
+		static final String SUMMARY_OPTION = "summary";
+		static final String FULL_OPTION = "full";
+		static final String LIGHTWEIGHT_OPTION = "lightweight";
+
 		private String symbol;
 		private File pomFile;
 		private String scope;
-		private long lastModified;
+		private boolean offline;
+		private boolean lightweight;
+		private Boolean summary;
 		
 		public ParsedSymbol(String symbol) {
 			super();
@@ -134,16 +534,22 @@ public class MavenClasspathSymbolType extends SymbolType implements Rule, Transl
 		}
 		
 		private void parseSymbol() {
-			if (symbol.contains("@")) {
-	        	String[] s = symbol.split("@");
-	        	pomFile = new File(s[0]);
-	        	scope = s[1];
-	        } else {
-	        	pomFile = new File(symbol);
-	        	scope = MavenClasspathExtractor.DEFAULT_SCOPE;
-	        }
-
-			lastModified = pomFile.lastModified();
+			String[] s = symbol.split("@");
+			pomFile = new File(s[0]);
+			scope = MavenClasspathExtractor.DEFAULT_SCOPE;
+			for (int i = 1; i < s.length; i++) {
+				if (OFFLINE_OPTION.equalsIgnoreCase(s[i])) {
+					offline = true;
+				} else if (SUMMARY_OPTION.equalsIgnoreCase(s[i])) {
+					summary = true;
+				} else if (FULL_OPTION.equalsIgnoreCase(s[i])) {
+					summary = false;
+				} else if (LIGHTWEIGHT_OPTION.equalsIgnoreCase(s[i])) {
+					lightweight = true;
+				} else {
+					scope = s[i];
+				}
+			}
 		}
 		
 		public File getPomFile() {
@@ -154,22 +560,23 @@ public class MavenClasspathSymbolType extends SymbolType implements Rule, Transl
 			return scope;
 		}
 
-		/* hashCode() and equals() are optimized for used in the cache */
-		
-		@Override
-		public int hashCode() {
-			return symbol.hashCode() + (int) lastModified;
+		public boolean isOffline() {
+			return offline;
 		}
-		
-		@Override
-		public boolean equals(Object obj) {
-			if (obj instanceof ParsedSymbol) {
-				ParsedSymbol ps = (ParsedSymbol) obj;
-				return symbol.equals(ps.symbol) && lastModified == ps.lastModified;
-			}
-			return false;
+
+		public boolean isLightweight() {
+			return lightweight;
 		}
-	}
-}
 
+		/**
+		 * @param byDefault whether to render a summary if the symbol does not say.
+		 */
+		public boolean isSummary(boolean byDefault) {
+			return summary != null ? summary : byDefault;
+		}
 
+		public String getText() {
+			return symbol;
+		}
+	}
+}
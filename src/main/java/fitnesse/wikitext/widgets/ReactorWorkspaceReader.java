@@ -0,0 +1,66 @@
+package fitnesse.wikitext.widgets;
+
+import org.apache.maven.project.MavenProject;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.repository.WorkspaceReader;
+import org.sonatype.aether.repository.WorkspaceRepository;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets dependencies on modules of the same multi-module build resolve to the modules' output directories, so the
+ * modules don't have to be installed in the local repository first.
+ */
+class ReactorWorkspaceReader implements WorkspaceReader {
+
+    private final WorkspaceRepository repository = new WorkspaceRepository("reactor");
+    private final Map<String, MavenProject> projects = new HashMap<String, MavenProject>();
+
+    ReactorWorkspaceReader(Collection<MavenProject> projects) {
+        for (MavenProject project : projects) {
+            this.projects.put(key(project.getGroupId(), project.getArtifactId(), project.getVersion()), project);
+        }
+    }
+
+    @Override
+    public WorkspaceRepository getRepository() {
+        return repository;
+    }
+
+    @Override
+    public File findArtifact(Artifact artifact) {
+        MavenProject project = projects.get(key(artifact.getGroupId(), artifact.getArtifactId(), artifact.getBaseVersion()));
+        if (project == null) {
+            return null;
+        }
+        if ("pom".equals(artifact.getExtension())) {
+            return project.getFile();
+        }
+        if ("tests".equals(artifact.getClassifier())) {
+            return new File(project.getBuild().getTestOutputDirectory());
+        }
+        if ("jar".equals(artifact.getExtension()) && artifact.getClassifier().length() == 0) {
+            return new File(project.getBuild().getOutputDirectory());
+        }
+        return null;
+    }
+
+    @Override
+    public List<String> findVersions(Artifact artifact) {
+        for (MavenProject project : projects.values()) {
+            if (project.getGroupId().equals(artifact.getGroupId()) && project.getArtifactId().equals(artifact.getArtifactId())) {
+                return Collections.singletonList(project.getVersion());
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static String key(String groupId, String artifactId, String version) {
+        return groupId + ":" + artifactId + ":" + version;
+    }
+}
@@ -0,0 +1,160 @@
+package fitnesse.wikitext.widgets;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Outcome of a classpath resolution: the classpath elements of every scope, together with the fingerprint of the
+ * inputs they were resolved from and, if known, the dependency tree they came from.
+ * <p>
+ * The scopes largely overlap, so all elements are kept in one deduplicated list; a scope is a list of indices into it.
+ * Elements are interned, so classpaths of different POMs share the path strings of the jars they have in common.
+ */
+public class ResolvedClasspath {
+
+    public static final String COMPILE_SCOPE = "compile";
+    public static final String RUNTIME_SCOPE = "runtime";
+    public static final String TEST_SCOPE = "test";
+
+    private static final WeakInterner<String> ELEMENTS = new WeakInterner<String>();
+
+    private final String[] elements;
+    private final Map<String, int[]> scopes = new LinkedHashMap<String, int[]>();
+    private final ClasspathFingerprint fingerprint;
+    private final DependencyTree dependencyTree;
+    private final ConcurrentMap<String, String> renderings = new ConcurrentHashMap<String, String>();
+
+    /**
+     * @param classpaths classpath elements per scope
+     */
+    public ResolvedClasspath(Map<String, List<String>> classpaths, ClasspathFingerprint fingerprint) {
+        this(classpaths, fingerprint, null);
+    }
+
+    /**
+     * @param classpaths classpath elements per scope
+     * @param dependencyTree the resolved dependencies, null if unknown
+     */
+    public ResolvedClasspath(Map<String, List<String>> classpaths, ClasspathFingerprint fingerprint,
+                             DependencyTree dependencyTree) {
+        Map<String, Integer> index = new LinkedHashMap<String, Integer>();
+        for (Map.Entry<String, List<String>> classpath : classpaths.entrySet()) {
+            int[] indices = new int[classpath.getValue().size()];
+            int i = 0;
+            for (String element : classpath.getValue()) {
+                Integer position = index.get(element);
+                if (position == null) {
+                    position = index.size();
+                    index.put(ELEMENTS.intern(element), position);
+                }
+                indices[i++] = position;
+            }
+            scopes.put(classpath.getKey(), indices);
+        }
+        this.elements = index.keySet().toArray(new String[index.size()]);
+        this.fingerprint = fingerprint;
+        this.dependencyTree = dependencyTree;
+    }
+
+    /**
+     * Classpath that is the same for every scope.
+     */
+    public ResolvedClasspath(List<String> elements, ClasspathFingerprint fingerprint) {
+        this(sameForEveryScope(elements), fingerprint);
+    }
+
+    public static ResolvedClasspath empty() {
+        return new ResolvedClasspath(Collections.<String>emptyList(), ClasspathFingerprint.NONE);
+    }
+
+    private static Map<String, List<String>> sameForEveryScope(List<String> elements) {
+        Map<String, List<String>> classpaths = new HashMap<String, List<String>>();
+        classpaths.put(COMPILE_SCOPE, elements);
+        classpaths.put(RUNTIME_SCOPE, elements);
+        classpaths.put(TEST_SCOPE, elements);
+        return classpaths;
+    }
+
+    /**
+     * @return the classpath elements of the scope; unknown scopes get the test classpath.
+     */
+    public List<String> getElements(String scope) {
+        int[] indices = scopes.get(scope == null ? TEST_SCOPE : scope.toLowerCase(Locale.ENGLISH));
+        if (indices == null) {
+            indices = scopes.get(TEST_SCOPE);
+        }
+        if (indices == null) {
+            return Collections.emptyList();
+        }
+        final int[] scopeIndices = indices;
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return elements[scopeIndices[index]];
+            }
+
+            @Override
+            public int size() {
+                return scopeIndices.length;
+            }
+        };
+    }
+
+    public Set<String> getScopes() {
+        return Collections.unmodifiableSet(scopes.keySet());
+    }
+
+    public ClasspathFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    public boolean isStale() {
+        return fingerprint.isStale();
+    }
+
+    /**
+     * @return the dependency tree the classpath was resolved from, or null if it's not known, e.g. because the
+     * classpath was not resolved by Maven.
+     */
+    public DependencyTree getDependencyTree() {
+        return dependencyTree;
+    }
+
+    /**
+     * @return a copy holding only the fingerprint and dependency tree, to keep around once the classpath is replaced.
+     */
+    ResolvedClasspath withoutElements() {
+        return new ResolvedClasspath(Collections.<String, List<String>>emptyMap(), fingerprint, dependencyTree);
+    }
+
+    /**
+     * @return markup rendered from this classpath before, under the given key; null if there is none.
+     */
+    String getRendering(String key) {
+        return renderings.get(key);
+    }
+
+    /**
+     * Keep markup rendered from this classpath, so it need not be rendered again. It's dropped together with the
+     * classpath once that is resolved again.
+     */
+    void putRendering(String key, String markup) {
+        renderings.put(key, markup);
+    }
+
+    /**
+     * @return a measure of the memory held by this classpath: the number of element, input file and dependency tree
+     * node references.
+     */
+    public int getWeight() {
+        return elements.length + fingerprint.size() + (dependencyTree != null ? dependencyTree.size() : 0);
+    }
+}
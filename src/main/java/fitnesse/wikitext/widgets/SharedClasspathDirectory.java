@@ -0,0 +1,283 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares classpaths through a directory all servers can reach, e.g. on a network file system. Every key gets a
+ * classpath file, in the {@link ClasspathStore} format, and a lock file.
+ * <p>
+ * A server that misses takes the key's file lock before resolving, so the others block until it is done and then
+ * read its outcome. Classpath files are written to a temporary file first and renamed into place, so readers never
+ * see half a classpath. The lock is released by the operating system if a server dies while resolving.
+ * <p>
+ * Classpath elements are shared as they are, so servers should see the local repository at the same path. A shared
+ * classpath that refers to jars this server does not have is resolved again.
+ * <p>
+ * Each server has its own copies of the inputs, e.g. POMs checked out or downloaded at different times, so their
+ * modification times say little about another server's. A classpath file therefore also holds a SHA-1 checksum of the
+ * content of every input. A shared classpath whose inputs look changed here is still used if their content is the
+ * same, and is then given a fingerprint of this server's files.
+ */
+public class SharedClasspathDirectory implements SharedClasspathStore {
+
+    private static final Logger LOG = Logger.getLogger(SharedClasspathDirectory.class.getName());
+
+    // File locks are held by the whole JVM, so threads of one JVM have to take turns by other means
+    private static final ConcurrentMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private final File directory;
+
+    public SharedClasspathDirectory(String directory) {
+        this(new File(directory));
+    }
+
+    public SharedClasspathDirectory(File directory) {
+        this.directory = directory.getAbsoluteFile();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public ResolvedClasspath resolve(String key, ClasspathCache.Resolver resolver) throws MavenClasspathExtractionException {
+        String name = fileName(key);
+        ResolvedClasspath shared = read(key, name);
+        if (isUsable(shared)) {
+            return shared;
+        }
+        synchronized (jvmLock(name)) {
+            FileLock lock = lock(name);
+            try {
+                // Another server may have resolved it while we waited for the lock
+                shared = read(key, name);
+                if (isUsable(shared)) {
+                    return shared;
+                }
+                ResolvedClasspath classpath = resolver.resolve();
+                write(key, name, classpath);
+                return classpath;
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    @Override
+    public void put(String key, ResolvedClasspath classpath) {
+        String name = fileName(key);
+        synchronized (jvmLock(name)) {
+            FileLock lock = lock(name);
+            try {
+                write(key, name, classpath);
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    private static boolean isUsable(ResolvedClasspath classpath) {
+        if (classpath == null || classpath.isStale()) {
+            return false;
+        }
+        for (String scope : classpath.getScopes()) {
+            for (String element : classpath.getElements(scope)) {
+                // Output directories may legitimately not be there yet
+                if (element.endsWith(".jar") && !new File(element).isFile()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private ResolvedClasspath read(String key, String name) {
+        File file = new File(directory, name + ".classpath");
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                Map<String, ResolvedClasspath> classpaths = ClasspathStore.read(in);
+                ResolvedClasspath classpath = classpaths != null ? classpaths.get(key) : null;
+                if (classpath == null || !classpath.isStale()) {
+                    return classpath;
+                }
+                return sameContent(classpath, readChecksums(in)) ? withLocalFingerprint(classpath) : classpath;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Unable to read shared classpath " + file, e);
+            return null;
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Ignoring corrupt shared classpath " + file, e);
+            return null;
+        }
+    }
+
+    private void write(String key, String name, ResolvedClasspath classpath) {
+        File file = new File(directory, name + ".classpath");
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(name, ".tmp", directory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                ClasspathStore.write(out, Collections.singletonMap(key, classpath));
+                writeChecksums(out, classpath.getFingerprint());
+            } finally {
+                out.close();
+            }
+            // renameTo() does not replace an existing file on all platforms
+            if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            // The other servers will resolve it themselves
+            LOG.log(Level.WARNING, "Unable to share classpath in " + file, e);
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void writeChecksums(DataOutputStream out, ClasspathFingerprint fingerprint) throws IOException {
+        out.writeInt(fingerprint.size());
+        for (int f = 0; f < fingerprint.size(); f++) {
+            out.writeUTF(ClasspathManifest.checksum(fingerprint.getFile(f)));
+        }
+    }
+
+    /**
+     * @return the checksums of the inputs, or null if the file has none.
+     */
+    private static String[] readChecksums(DataInputStream in) throws IOException {
+        try {
+            String[] checksums = new String[in.readInt()];
+            for (int f = 0; f < checksums.length; f++) {
+                checksums[f] = in.readUTF();
+            }
+            return checksums;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static boolean sameContent(ResolvedClasspath classpath, String[] checksums) throws IOException {
+        ClasspathFingerprint fingerprint = classpath.getFingerprint();
+        if (checksums == null || checksums.length != fingerprint.size()) {
+            return false;
+        }
+        for (int f = 0; f < checksums.length; f++) {
+            if (!checksums[f].equals(ClasspathManifest.checksum(fingerprint.getFile(f)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ResolvedClasspath withLocalFingerprint(ResolvedClasspath classpath) {
+        Map<String, List<String>> classpaths = new LinkedHashMap<String, List<String>>();
+        for (String scope : classpath.getScopes()) {
+            classpaths.put(scope, classpath.getElements(scope));
+        }
+        return new ResolvedClasspath(classpaths, new ClasspathFingerprint(classpath.getFingerprint().getFiles()),
+                classpath.getDependencyTree());
+    }
+
+    /**
+     * @return the lock, or null if locking is not possible; resolution then goes ahead without it.
+     */
+    private FileLock lock(String name) {
+        RandomAccessFile lockFile = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("Unable to create directory " + directory);
+            }
+            lockFile = new RandomAccessFile(new File(directory, name + ".lock"), "rw");
+            return lockFile.getChannel().lock();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to lock shared classpath " + name + " in " + directory, e);
+            close(lockFile);
+            return null;
+        }
+    }
+
+    private static void release(FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Unable to release lock", e);
+        }
+        close(lock.channel());
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Unable to close lock file", e);
+            }
+        }
+    }
+
+    private Object jvmLock(String name) {
+        String path = new File(directory, name).getPath();
+        Object lock = JVM_LOCKS.get(path);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = JVM_LOCKS.putIfAbsent(path, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Keys are POM paths; hash them into names that are valid and short on every file system.
+     */
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
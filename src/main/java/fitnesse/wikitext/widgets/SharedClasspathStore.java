@@ -0,0 +1,25 @@
+package fitnesse.wikitext.widgets;
+
+/**
+ * Classpaths shared between FitNesse servers serving the same wiki, so a POM is resolved by one of them rather than
+ * by each. {@link ClasspathCache} consults it on a miss, before resolving itself.
+ * <p>
+ * Implementations need a public constructor taking the location (a string) to share through, so they can be
+ * configured with {@link MavenClasspathSymbolType#SHARED_CACHE_CLASS_KEY}.
+ *
+ * @see SharedClasspathDirectory
+ */
+public interface SharedClasspathStore {
+
+    /**
+     * Get the classpath for a key as resolved by any server, resolving it with the given resolver if none did yet or
+     * if the shared classpath is outdated. Servers asking for the same key at the same time should end up with a
+     * single resolution.
+     */
+    ResolvedClasspath resolve(String key, ClasspathCache.Resolver resolver) throws MavenClasspathExtractionException;
+
+    /**
+     * Share a classpath that was resolved along with another one.
+     */
+    void put(String key, ResolvedClasspath classpath);
+}
@@ -0,0 +1,257 @@
+package fitnesse.wikitext.widgets;
+
+import org.apache.maven.artifact.InvalidRepositoryException;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.ProjectBuildingHelper;
+import org.apache.maven.project.ProjectBuildingRequest;
+import org.apache.maven.repository.RepositorySystem;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds a {@link MavenProject} straight from a POM, without Maven's project builder: no inheritance, profile
+ * activation, model validation or plugin model. Only what the classpath depends on is filled in: coordinates,
+ * dependencies with their dependency management, repositories and output directories. Expressions are interpolated
+ * from the POM's properties, the project coordinates and the system properties.
+ * <p>
+ * This covers simple POMs only. A POM with a parent, profiles, imported dependency management or an expression it
+ * cannot interpolate is left to the project builder, as are settings profiles with properties.
+ */
+final class SimpleProjectBuilder {
+
+    private static final Logger LOG = Logger.getLogger(SimpleProjectBuilder.class.getName());
+
+    private static final Pattern EXPRESSION = Pattern.compile("\\$\\{([^}]+)\\}");
+    private static final int MAX_NESTING = 10;
+
+    private final MavenClasspathExtractor components;
+
+    SimpleProjectBuilder(MavenClasspathExtractor components) {
+        this.components = components;
+    }
+
+    /**
+     * @param request a request with the repository session set
+     * @return the project, or null if the POM needs the project builder.
+     */
+    MavenProject build(File pomFile, ProjectBuildingRequest request) throws ComponentLookupException {
+        Model model = read(pomFile);
+        if (model == null || !isSimple(model, request)) {
+            return null;
+        }
+        File basedir = pomFile.getAbsoluteFile().getParentFile();
+        Map<String, String> values = values(model, request, basedir);
+        if (!interpolate(model, values, basedir)) {
+            return null;
+        }
+        manageDependencies(model);
+
+        MavenProject project = new MavenProject(model);
+        project.setFile(pomFile.getAbsoluteFile());
+        project.setArtifact(components.lookup(RepositorySystem.class).createArtifact(model.getGroupId(),
+                model.getArtifactId(), model.getVersion(), null, model.getPackaging()));
+        try {
+            project.setRemoteArtifactRepositories(components.lookup(ProjectBuildingHelper.class)
+                    .createArtifactRepositories(model.getRepositories(), request.getRemoteRepositories(), request));
+        } catch (InvalidRepositoryException e) {
+            LOG.fine("Leaving " + pomFile + " to the project builder: " + e.getMessage());
+            return null;
+        }
+        return project;
+    }
+
+    private static Model read(File pomFile) {
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(pomFile));
+            try {
+                Model model = new MavenXpp3Reader().read(in, false);
+                model.setPomFile(pomFile.getAbsoluteFile());
+                return model;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // The project builder reports the problem
+            return null;
+        } catch (XmlPullParserException e) {
+            return null;
+        }
+    }
+
+    private static boolean isSimple(Model model, ProjectBuildingRequest request) {
+        String reason = null;
+        if (model.getParent() != null) {
+            reason = "it has a parent";
+        } else if (!model.getProfiles().isEmpty()) {
+            reason = "it has profiles";
+        } else if (model.getGroupId() == null || model.getVersion() == null) {
+            reason = "its coordinates are incomplete";
+        } else if (model.getDependencyManagement() != null) {
+            for (Dependency managed : model.getDependencyManagement().getDependencies()) {
+                if ("import".equals(managed.getScope())) {
+                    reason = "it imports dependency management";
+                }
+            }
+        }
+        for (Profile profile : request.getProfiles()) {
+            if (!profile.getProperties().isEmpty()) {
+                reason = "settings profiles define properties";
+            }
+        }
+        if (reason != null) {
+            LOG.fine("Leaving " + model.getPomFile() + " to the project builder, since " + reason);
+            return false;
+        }
+        return true;
+    }
+
+    private static Map<String, String> values(Model model, ProjectBuildingRequest request, File basedir) {
+        Map<String, String> values = new HashMap<String, String>();
+        putAll(values, request.getSystemProperties());
+        putAll(values, model.getProperties());
+        putAll(values, request.getUserProperties());
+        for (String prefix : new String[] { "project.", "pom.", "" }) {
+            values.put(prefix + "groupId", model.getGroupId());
+            values.put(prefix + "artifactId", model.getArtifactId());
+            values.put(prefix + "version", model.getVersion());
+            values.put(prefix + "packaging", model.getPackaging());
+            values.put(prefix + "basedir", basedir.getPath());
+        }
+        return values;
+    }
+
+    private static void putAll(Map<String, String> values, Properties properties) {
+        if (properties != null) {
+            for (String name : properties.stringPropertyNames()) {
+                values.put(name, properties.getProperty(name));
+            }
+        }
+    }
+
+    /**
+     * @return false if an expression is left that can't be interpolated.
+     */
+    private static boolean interpolate(Model model, Map<String, String> values, File basedir) {
+        try {
+            Build build = model.getBuild() != null ? model.getBuild() : new Build();
+            String directory = path(basedir, interpolate(build.getDirectory(), "target", values));
+            values.put("project.build.directory", directory);
+            build.setDirectory(directory);
+            build.setOutputDirectory(path(basedir, interpolate(build.getOutputDirectory(), directory + "/classes", values)));
+            build.setTestOutputDirectory(path(basedir, interpolate(build.getTestOutputDirectory(), directory + "/test-classes", values)));
+            model.setBuild(build);
+
+            interpolate(model.getDependencies(), values);
+            if (model.getDependencyManagement() != null) {
+                interpolate(model.getDependencyManagement().getDependencies(), values);
+            }
+            for (org.apache.maven.model.Repository repository : model.getRepositories()) {
+                repository.setUrl(interpolate(repository.getUrl(), null, values));
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            LOG.fine("Leaving " + model.getPomFile() + " to the project builder: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void interpolate(List<Dependency> dependencies, Map<String, String> values) {
+        for (Dependency dependency : dependencies) {
+            dependency.setGroupId(interpolate(dependency.getGroupId(), null, values));
+            dependency.setArtifactId(interpolate(dependency.getArtifactId(), null, values));
+            dependency.setVersion(interpolate(dependency.getVersion(), null, values));
+            dependency.setType(interpolate(dependency.getType(), "jar", values));
+            dependency.setClassifier(interpolate(dependency.getClassifier(), null, values));
+            dependency.setScope(interpolate(dependency.getScope(), null, values));
+            dependency.setSystemPath(interpolate(dependency.getSystemPath(), null, values));
+            for (Exclusion exclusion : dependency.getExclusions()) {
+                exclusion.setGroupId(interpolate(exclusion.getGroupId(), null, values));
+                exclusion.setArtifactId(interpolate(exclusion.getArtifactId(), null, values));
+            }
+        }
+    }
+
+    private static String interpolate(String value, String defaultValue, Map<String, String> values) {
+        if (value == null) {
+            value = defaultValue;
+        }
+        for (int i = 0; value != null && value.contains("${"); i++) {
+            if (i == MAX_NESTING) {
+                throw new IllegalArgumentException("Unable to interpolate " + value);
+            }
+            Matcher matcher = EXPRESSION.matcher(value);
+            StringBuffer interpolated = new StringBuffer();
+            while (matcher.find()) {
+                String replacement = values.get(matcher.group(1));
+                if (replacement == null) {
+                    throw new IllegalArgumentException("Unknown expression " + matcher.group());
+                }
+                matcher.appendReplacement(interpolated, Matcher.quoteReplacement(replacement));
+            }
+            matcher.appendTail(interpolated);
+            value = interpolated.toString();
+        }
+        return value;
+    }
+
+    private static String path(File basedir, String path) {
+        File file = new File(path);
+        return (file.isAbsolute() ? file : new File(basedir, path)).getAbsolutePath();
+    }
+
+    /**
+     * Apply dependency management to the direct dependencies, the way the project builder does; Aether applies it
+     * to the transitive ones.
+     */
+    private static void manageDependencies(Model model) {
+        DependencyManagement management = model.getDependencyManagement();
+        Map<String, Dependency> managed = new HashMap<String, Dependency>();
+        if (management != null) {
+            for (Dependency dependency : management.getDependencies()) {
+                managed.put(dependency.getManagementKey(), dependency);
+            }
+        }
+        for (Dependency dependency : model.getDependencies()) {
+            Dependency managedDependency = managed.get(dependency.getManagementKey());
+            if (managedDependency != null) {
+                if (dependency.getVersion() == null) {
+                    dependency.setVersion(managedDependency.getVersion());
+                }
+                if (dependency.getScope() == null) {
+                    dependency.setScope(managedDependency.getScope());
+                }
+                if (dependency.getSystemPath() == null) {
+                    dependency.setSystemPath(managedDependency.getSystemPath());
+                }
+                if (dependency.getExclusions().isEmpty()) {
+                    for (Exclusion exclusion : managedDependency.getExclusions()) {
+                        dependency.addExclusion(exclusion.clone());
+                    }
+                }
+            }
+            if (dependency.getScope() == null) {
+                dependency.setScope("compile");
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package fitnesse.wikitext.widgets;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Hands out one shared instance per distinct value, like {@link String#intern()}, but without keeping values alive
+ * once nobody else refers to them. Most POMs on a server use the same few hundred jars, so their paths are stored once.
+ */
+class WeakInterner<T> {
+
+    private final Map<T, WeakReference<T>> instances = new WeakHashMap<T, WeakReference<T>>();
+
+    synchronized T intern(T value) {
+        WeakReference<T> reference = instances.get(value);
+        T instance = reference != null ? reference.get() : null;
+        if (instance == null) {
+            instances.put(value, new WeakReference<T>(value));
+            instance = value;
+        }
+        return instance;
+    }
+
+    synchronized int size() {
+        return instances.size();
+    }
+}
@@ -0,0 +1,182 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.*;
+
+public class ClassLoaderCacheTest {
+
+    private File jar;
+    private ResolvedClasspath classpath;
+
+    @Before
+    public void setUp() throws IOException {
+        jar = File.createTempFile("classes", ".jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), new Manifest());
+        try {
+            // A class of our own that only depends on the JDK, so it loads without a parent class loader
+            String className = WeakInterner.class.getName().replace('.', '/') + ".class";
+            out.putNextEntry(new ZipEntry(className));
+            out.write(classBytes(className));
+            out.putNextEntry(new ZipEntry("hello.txt"));
+            out.write("hello".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        classpath = new ResolvedClasspath(Arrays.asList(jar.getPath()), ClasspathFingerprint.NONE);
+    }
+
+    @After
+    public void tearDown() {
+        jar.delete();
+    }
+
+    @Test
+    public void sharesClassLoaderBetweenLeases() {
+        ClassLoaderCache cache = new ClassLoaderCache(false, 1);
+
+        ClassLoaderCache.Lease first = cache.acquire(classpath, "test", null);
+        ClassLoaderCache.Lease second = cache.acquire(classpath, "test", null);
+        ClassLoader classLoader = first.getClassLoader();
+        assertSame(classLoader, second.getClassLoader());
+        first.release();
+        second.release();
+
+        ClassLoaderCache.Lease third = cache.acquire(classpath, "test", null);
+        assertSame(classLoader, third.getClassLoader());
+        third.release();
+    }
+
+    @Test
+    public void replacesClassLoaderWhenAJarChanges() {
+        ClassLoaderCache cache = new ClassLoaderCache(false, 1);
+        ClassLoaderCache.Lease first = cache.acquire(classpath, "test", null);
+        ClassLoader classLoader = first.getClassLoader();
+        first.release();
+
+        jar.setLastModified(jar.lastModified() - 10000);
+
+        ClassLoaderCache.Lease second = cache.acquire(classpath, "test", null);
+        assertNotSame(classLoader, second.getClassLoader());
+        assertEquals(1, cache.getSize());
+        second.release();
+    }
+
+    @Test
+    public void indexedClassLoaderLoadsFromTheIndexedJar() throws Exception {
+        ClassLoaderCache cache = new ClassLoaderCache(true, 1);
+        ClassLoaderCache.Lease lease = cache.acquire(classpath, "test", null);
+        ClassLoader classLoader = lease.getClassLoader();
+
+        Class<?> loaded = classLoader.loadClass(WeakInterner.class.getName());
+        assertSame(classLoader, loaded.getClassLoader());
+        assertNotSame(WeakInterner.class, loaded);
+        assertNotNull(loaded.getPackage());
+
+        InputStream in = classLoader.getResourceAsStream("hello.txt");
+        assertNotNull(in);
+        in.close();
+        assertNull(classLoader.getResource("missing.txt"));
+        try {
+            classLoader.loadClass("no.such.Clazz");
+            fail("class should not be found");
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+        lease.release();
+    }
+
+    @Test
+    public void jarIndexReadsTheCentralDirectory() throws IOException {
+        JarIndex index = new JarIndex(Arrays.asList(new File("not-a-jar"), jar));
+
+        assertEquals(1, index.find("hello.txt"));
+        assertEquals(-1, index.find("missing.txt"));
+        assertTrue(index.isIndexed(1));
+        assertFalse(index.isIndexed(0));
+
+        File notAZip = File.createTempFile("plain", ".txt");
+        try {
+            writeBytes(notAZip, "plain".getBytes("UTF-8"));
+            assertEquals(JarIndex.UNKNOWN, new JarIndex(Arrays.asList(notAZip, jar)).find("hello.txt"));
+            assertEquals(0, new JarIndex(Arrays.asList(jar, notAZip)).find("hello.txt"));
+        } finally {
+            notAZip.delete();
+        }
+    }
+
+    @Test
+    public void indexedClassLoaderPrefersEarlierOutputDirectories() throws Exception {
+        File classes = File.createTempFile("classes", "");
+        classes.delete();
+        String className = WeakInterner.class.getName().replace('.', '/') + ".class";
+        File classFile = new File(classes, className);
+        classFile.getParentFile().mkdirs();
+        writeBytes(classFile, classBytes(className));
+        writeBytes(new File(classes, "hello.txt"), "from the directory".getBytes("UTF-8"));
+        try {
+            ResolvedClasspath directoryFirst = new ResolvedClasspath(Arrays.asList(classes.getPath(), jar.getPath()),
+                    ClasspathFingerprint.NONE);
+            ClassLoaderCache.Lease lease = new ClassLoaderCache(true, 1).acquire(directoryFirst, "test", null);
+            ClassLoader classLoader = lease.getClassLoader();
+
+            Class<?> loaded = classLoader.loadClass(WeakInterner.class.getName());
+            assertEquals(classes.toURI().toURL(), loaded.getProtectionDomain().getCodeSource().getLocation());
+            assertEquals("file", classLoader.getResource("hello.txt").getProtocol());
+            assertEquals("from the directory", read(classLoader.getResourceAsStream("hello.txt")));
+            assertNull(classLoader.getResource("missing.txt"));
+            lease.release();
+        } finally {
+            TestFiles.delete(classes);
+        }
+    }
+
+    private byte[] classBytes(String className) throws IOException {
+        InputStream in = getClass().getClassLoader().getResourceAsStream(className);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int read;
+            while ((read = in.read()) != -1) {
+                out.write(read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeBytes(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ClasspathCacheTest {
+
+    private ClasspathCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new ClasspathCache();
+    }
+
+    @Test
+    public void concurrentRequestsShareOneResolution() throws Exception {
+        final AtomicInteger resolutions = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ClasspathCache.Resolver resolver = new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+                resolutions.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new MavenClasspathExtractionException(e);
+                }
+                return new ResolvedClasspath(Arrays.asList("a.jar"), ClasspathFingerprint.NONE);
+            }
+        };
+
+        final List<ResolvedClasspath> results = new ArrayList<ResolvedClasspath>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        ResolvedClasspath classpath = cache.get("pom.xml", resolver);
+                        synchronized (results) {
+                            results.add(classpath);
+                        }
+                    } catch (MavenClasspathExtractionException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, resolutions.get());
+        assertEquals(8, results.size());
+        for (ResolvedClasspath classpath : results) {
+            assertSame(results.get(0), classpath);
+        }
+    }
+
+    @Test
+    public void resolutionDoesNotBlockOtherKeys() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread slow = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    cache.get("slow.xml", new ClasspathCache.Resolver() {
+                        @Override
+                        public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new MavenClasspathExtractionException(e);
+                            }
+                            return ResolvedClasspath.empty();
+                        }
+                    });
+                } catch (MavenClasspathExtractionException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        slow.start();
+
+        ResolvedClasspath classpath = cache.get("fast.xml", fixed("b.jar"));
+
+        assertEquals(Arrays.asList("b.jar"), classpath.getElements("test"));
+        release.countDown();
+        slow.join();
+    }
+
+    @Test
+    public void failedResolutionsAreNotCached() throws Exception {
+        try {
+            cache.get("pom.xml", new ClasspathCache.Resolver() {
+                @Override
+                public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+                    throw new MavenClasspathExtractionException("boom", null);
+                }
+            });
+            fail("exception expected");
+        } catch (MavenClasspathExtractionException e) {
+            assertEquals("boom", e.getMessage());
+        }
+
+        assertEquals(Arrays.asList("c.jar"), cache.get("pom.xml", fixed("c.jar")).getElements("test"));
+    }
+
+    @Test
+    public void servesStaleStoredEntryWhileRefreshingInBackground() throws Exception {
+        File pom = File.createTempFile("pom", ".xml");
+        pom.deleteOnExit();
+        ClasspathStore store = new ClasspathStore(storeFile());
+        ClasspathFingerprint fingerprint = new ClasspathFingerprint(Collections.singletonList(pom));
+        store.put("pom.xml", new ResolvedClasspath(Arrays.asList("old.jar"), fingerprint));
+        pom.setLastModified(pom.lastModified() - 10000);
+        cache = new ClasspathCache(store);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        ClasspathCache.Resolver resolver = new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new MavenClasspathExtractionException(e);
+                }
+                refreshed.countDown();
+                return new ResolvedClasspath(Arrays.asList("new.jar"), ClasspathFingerprint.NONE);
+            }
+        };
+
+        assertEquals(Arrays.asList("old.jar"), cache.get("pom.xml", resolver).getElements("test"));
+        assertEquals(Arrays.asList("old.jar"), cache.get("pom.xml", resolver).getElements("test"));
+        release.countDown();
+        assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cache.get("pom.xml", resolver).getElements("test").contains("new.jar") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("new.jar"), cache.get("pom.xml", resolver).getElements("test"));
+        assertEquals(Arrays.asList("new.jar"), store.get("pom.xml").getElements("test"));
+    }
+
+    @Test
+    public void resolvesAgainRightAwayWhenAnInputOfACachedEntryChanges() throws Exception {
+        final File pom = File.createTempFile("pom", ".xml");
+        pom.deleteOnExit();
+        cache = new ClasspathCache(new ClasspathStore(storeFile()));
+        final AtomicInteger resolutions = new AtomicInteger();
+        ClasspathCache.Resolver resolver = new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() {
+                return new ResolvedClasspath(Arrays.asList("resolution-" + resolutions.incrementAndGet() + ".jar"),
+                        new ClasspathFingerprint(Collections.singletonList(pom)));
+            }
+        };
+
+        assertEquals(Arrays.asList("resolution-1.jar"), cache.get("pom.xml", resolver).getElements("test"));
+        pom.setLastModified(pom.lastModified() - 10000);
+
+        assertEquals(Arrays.asList("resolution-2.jar"), cache.get("pom.xml", resolver).getElements("test"));
+    }
+
+    @Test
+    public void failedRefreshKeepsAClasspathPutWhileItRan() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger resolutions = new AtomicInteger();
+        ClasspathCache.Resolver resolver = new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+                if (resolutions.incrementAndGet() == 1) {
+                    return new ResolvedClasspath(Arrays.asList("old.jar"), ClasspathFingerprint.NONE);
+                }
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new MavenClasspathExtractionException("broken", null);
+            }
+        };
+        cache.get("pom.xml", resolver);
+
+        assertTrue(cache.refresh("pom.xml"));
+        assertFalse("already being refreshed", cache.refresh("pom.xml"));
+        cache.put("pom.xml", new ResolvedClasspath(Arrays.asList("newer.jar"), ClasspathFingerprint.NONE));
+        release.countDown();
+
+        // Refreshes run one at a time, so this one runs once the failed one is done
+        final CountDownLatch done = new CountDownLatch(1);
+        cache.refresh("other.xml", new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() {
+                done.countDown();
+                return ResolvedClasspath.empty();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("newer.jar"), cache.getIfPresent("pom.xml").getElements("test"));
+    }
+
+    @Test
+    public void servesFreshStoredEntryWithoutResolving() throws Exception {
+        ClasspathStore store = new ClasspathStore(storeFile());
+        store.put("pom.xml", new ResolvedClasspath(Arrays.asList("stored.jar"), ClasspathFingerprint.NONE));
+        cache = new ClasspathCache(store);
+
+        ResolvedClasspath classpath = cache.get("pom.xml", new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() {
+                throw new AssertionError("should not resolve");
+            }
+        });
+
+        assertEquals(Arrays.asList("stored.jar"), classpath.getElements("test"));
+    }
+
+    @Test
+    public void countsHitsMissesEvictionsAndFailures() throws Exception {
+        ClasspathMetrics metrics = new ClasspathMetrics();
+        cache = new ClasspathCache(null, metrics);
+        File pom = File.createTempFile("pom", ".xml");
+        pom.deleteOnExit();
+        final ClasspathFingerprint fingerprint = new ClasspathFingerprint(Collections.singletonList(pom));
+        ClasspathCache.Resolver resolver = new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() {
+                return new ResolvedClasspath(Arrays.asList("a.jar"), fingerprint);
+            }
+        };
+
+        cache.get("pom.xml", resolver);
+        cache.get("pom.xml", resolver);
+        pom.setLastModified(pom.lastModified() - 10000);
+        cache.get("pom.xml", resolver);
+        try {
+            cache.get("broken.xml", new ClasspathCache.Resolver() {
+                @Override
+                public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+                    throw new MavenClasspathExtractionException("boom", null);
+                }
+            });
+            fail("exception expected");
+        } catch (MavenClasspathExtractionException e) {
+            // expected
+        }
+
+        assertEquals(1, metrics.getCacheHits());
+        assertEquals(3, metrics.getCacheMisses());
+        assertEquals(1, metrics.getEvictions());
+        assertEquals(1, metrics.getFailures());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBeyondMaximumSize() throws Exception {
+        cache.setMaximumSize(2);
+        cache.get("a.xml", fixed("a.jar"));
+        cache.get("b.xml", fixed("b.jar"));
+        Thread.sleep(1);
+        cache.get("a.xml", fixed("a.jar"));
+
+        cache.get("c.xml", fixed("c.jar"));
+
+        assertEquals(2, cache.getSize());
+        assertNotNull(cache.getIfPresent("a.xml"));
+        assertNull(cache.getIfPresent("b.xml"));
+        assertNotNull(cache.getIfPresent("c.xml"));
+    }
+
+    @Test
+    public void evictsBeyondMaximumWeight() throws Exception {
+        cache.setMaximumWeight(3);
+        cache.get("a.xml", fixed("a.jar", "b.jar"));
+        cache.get("b.xml", fixed("c.jar", "d.jar"));
+
+        assertEquals(1, cache.getSize());
+        assertEquals(2, cache.getWeight());
+        assertNotNull(cache.getIfPresent("b.xml"));
+    }
+
+    @Test
+    public void expiredEntriesAreResolvedAgain() throws Exception {
+        final AtomicInteger resolutions = new AtomicInteger();
+        ClasspathCache.Resolver resolver = new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() {
+                resolutions.incrementAndGet();
+                return ResolvedClasspath.empty();
+            }
+        };
+        cache.setExpireAfterWrite(1, TimeUnit.MILLISECONDS);
+
+        cache.get("pom.xml", resolver);
+        Thread.sleep(5);
+        cache.get("pom.xml", resolver);
+
+        assertEquals(2, resolutions.get());
+    }
+
+    @Test
+    public void classpathsShareElementStrings() {
+        ResolvedClasspath first = new ResolvedClasspath(Arrays.asList(new String("shared.jar")), ClasspathFingerprint.NONE);
+        ResolvedClasspath second = new ResolvedClasspath(Arrays.asList(new String("shared.jar")), ClasspathFingerprint.NONE);
+
+        assertSame(first.getElements("test").get(0), second.getElements("test").get(0));
+    }
+
+    private File storeFile() throws IOException {
+        File file = File.createTempFile("classpath", ".store");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private ClasspathCache.Resolver fixed(final String... elements) {
+        return new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() {
+                return new ResolvedClasspath(Arrays.asList(elements), ClasspathFingerprint.NONE);
+            }
+        };
+    }
+}
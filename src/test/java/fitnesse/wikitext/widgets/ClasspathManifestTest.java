@@ -0,0 +1,108 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ClasspathManifestTest {
+
+    private File pom;
+    private File manifest;
+
+    @Before
+    public void setUp() throws IOException {
+        pom = File.createTempFile("pom", ".xml");
+        TestFiles.write(pom, "<project/>");
+        manifest = ClasspathManifest.manifestFile(pom);
+    }
+
+    @After
+    public void tearDown() {
+        pom.delete();
+        manifest.delete();
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        Map<String, List<String>> classpaths = new LinkedHashMap<String, List<String>>();
+        classpaths.put(ResolvedClasspath.COMPILE_SCOPE, Arrays.asList("/repo/a.jar"));
+        classpaths.put(ResolvedClasspath.TEST_SCOPE, Arrays.asList("/repo/a.jar", "/my project/b.jar"));
+        ClasspathManifest.write(pom, new ResolvedClasspath(classpaths,
+                new ClasspathFingerprint(Collections.singletonList(pom))));
+
+        ResolvedClasspath classpath = ClasspathManifest.read(pom);
+        assertNotNull(classpath);
+        assertEquals(Arrays.asList("/repo/a.jar"), classpath.getElements(ResolvedClasspath.COMPILE_SCOPE));
+        assertEquals(Arrays.asList("/repo/a.jar", "/my project/b.jar"), classpath.getElements(ResolvedClasspath.TEST_SCOPE));
+        assertEquals(Collections.singletonList(pom), classpath.getFingerprint().getFiles());
+        assertFalse(classpath.isStale());
+    }
+
+    @Test
+    public void isOutdatedWhenAnInputChanges() throws IOException {
+        writeManifest();
+        TestFiles.write(pom, "<project><version>2</version></project>");
+
+        assertNull(ClasspathManifest.read(pom));
+    }
+
+    @Test
+    public void isNotOutdatedByTouchingAnInput() throws IOException {
+        writeManifest();
+        pom.setLastModified(pom.lastModified() - 60000);
+
+        assertNotNull(ClasspathManifest.read(pom));
+    }
+
+    @Test
+    public void isIgnoredWhenCorrupt() throws IOException {
+        writeManifest();
+        RandomAccessFile file = new RandomAccessFile(manifest, "rw");
+        try {
+            file.seek(file.length() / 2);
+            int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 1);
+        } finally {
+            file.close();
+        }
+
+        assertNull(ClasspathManifest.read(pom));
+    }
+
+    @Test
+    public void leavesNoTemporaryFileWhenWritingFails() throws IOException {
+        assertTrue(manifest.mkdir());
+        File blocker = new File(manifest, "blocker");
+        TestFiles.write(blocker, "");
+        try {
+            writeManifest();
+            fail("Expected the manifest not to replace a directory");
+        } catch (IOException e) {
+            assertFalse(new File(manifest.getPath() + ".tmp").exists());
+        } finally {
+            TestFiles.delete(manifest);
+        }
+    }
+
+    @Test
+    public void isNothingWithoutAManifest() {
+        assertNull(ClasspathManifest.read(pom));
+    }
+
+    private void writeManifest() throws IOException {
+        ClasspathManifest.write(pom, new ResolvedClasspath(Arrays.asList("a.jar"),
+                new ClasspathFingerprint(Collections.singletonList(pom))));
+    }
+}
@@ -0,0 +1,130 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ClasspathStoreTest {
+
+    private File storeFile;
+    private File pom;
+
+    @Before
+    public void setUp() throws IOException {
+        storeFile = File.createTempFile("classpath", ".store");
+        storeFile.delete();
+        pom = File.createTempFile("pom", ".xml");
+        TestFiles.write(pom, "<project/>");
+    }
+
+    @After
+    public void tearDown() {
+        storeFile.delete();
+        pom.delete();
+    }
+
+    @Test
+    public void entriesSurviveARestart() {
+        ClasspathStore store = new ClasspathStore(storeFile);
+        store.put("pom.xml@test", new ResolvedClasspath(Arrays.asList("a.jar", "b.jar"),
+                new ClasspathFingerprint(Collections.singletonList(pom))));
+        store.put("other.xml@test", new ResolvedClasspath(Arrays.asList("a.jar"), ClasspathFingerprint.NONE));
+        store.save();
+
+        ClasspathStore reloaded = new ClasspathStore(storeFile);
+
+        ResolvedClasspath classpath = reloaded.get("pom.xml@test");
+        assertEquals(Arrays.asList("a.jar", "b.jar"), classpath.getElements("test"));
+        assertEquals(Collections.singletonList(pom.getAbsoluteFile()), classpath.getFingerprint().getFiles());
+        assertFalse(classpath.isStale());
+        assertEquals(Arrays.asList("a.jar"), reloaded.get("other.xml@test").getElements("test"));
+    }
+
+    @Test
+    public void dependencyTreesSurviveARestart() {
+        DependencyTree tree = new DependencyTree("org.example:project:jar:1.0",
+                new String[] { "org.example:lib-a:jar", "org.example:lib-b:jar" }, new String[] { "1.0", "2.0" },
+                new String[] { "compile", "runtime" }, new boolean[] { false, true }, new int[] { 1, 2 });
+        ClasspathStore store = new ClasspathStore(storeFile);
+        store.put("pom.xml@test", new ResolvedClasspath(Collections.singletonMap("test", Arrays.asList("a.jar")),
+                ClasspathFingerprint.NONE, tree));
+        store.put("other.xml@test", new ResolvedClasspath(Arrays.asList("a.jar"), ClasspathFingerprint.NONE));
+        store.save();
+
+        ClasspathStore reloaded = new ClasspathStore(storeFile);
+
+        assertEquals(tree.toText(), reloaded.get("pom.xml@test").getDependencyTree().toText());
+        assertNull(reloaded.get("other.xml@test").getDependencyTree());
+    }
+
+    @Test
+    public void reloadedEntriesDetectChanges() throws IOException {
+        ClasspathStore store = new ClasspathStore(storeFile);
+        store.put("pom.xml@test", new ResolvedClasspath(Arrays.asList("a.jar"),
+                new ClasspathFingerprint(Collections.singletonList(pom))));
+        store.save();
+
+        TestFiles.write(pom, "<project></project>");
+
+        assertTrue(new ClasspathStore(storeFile).get("pom.xml@test").isStale());
+    }
+
+    @Test
+    public void removalsAreSavedWithoutAnotherPut() throws InterruptedException {
+        ClasspathStore store = new ClasspathStore(storeFile);
+        store.put("pom.xml@test", new ResolvedClasspath(Arrays.asList("a.jar"), ClasspathFingerprint.NONE));
+        store.save();
+
+        store.remove("pom.xml@test");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (new ClasspathStore(storeFile).get("pom.xml@test") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(new ClasspathStore(storeFile).get("pom.xml@test"));
+    }
+
+    @Test
+    public void limitsApplyToLoadedEntries() {
+        ClasspathStore store = new ClasspathStore(storeFile);
+        store.put("old.xml@test", new ResolvedClasspath(Arrays.asList("a.jar"), ClasspathFingerprint.NONE));
+        store.put("pom.xml@test", new ResolvedClasspath(Arrays.asList("a.jar"), ClasspathFingerprint.NONE));
+        store.put("other.xml@test", new ResolvedClasspath(Arrays.asList("a.jar"), ClasspathFingerprint.NONE));
+        store.get("old.xml@test");
+        store.save();
+
+        ClasspathStore reloaded = new ClasspathStore(storeFile);
+        reloaded.setMaximumSize(2);
+        reloaded.save();
+
+        ClasspathStore bounded = new ClasspathStore(storeFile);
+        assertNull(bounded.get("pom.xml@test"));
+        assertNotNull(bounded.get("other.xml@test"));
+        assertNotNull(bounded.get("old.xml@test"));
+    }
+
+    @Test
+    public void putsStayWithinTheWeightLimit() {
+        ClasspathStore store = new ClasspathStore(storeFile);
+        store.setMaximumWeight(3);
+        store.put("pom.xml@test", new ResolvedClasspath(Arrays.asList("a.jar", "b.jar"), ClasspathFingerprint.NONE));
+        store.put("other.xml@test", new ResolvedClasspath(Arrays.asList("a.jar", "b.jar"), ClasspathFingerprint.NONE));
+
+        assertNull(store.get("pom.xml@test"));
+        assertNotNull(store.get("other.xml@test"));
+    }
+
+    @Test
+    public void ignoresCorruptStore() throws IOException {
+        TestFiles.write(storeFile, "garbage");
+
+        assertNull(new ClasspathStore(storeFile).get("pom.xml@test"));
+    }
+}
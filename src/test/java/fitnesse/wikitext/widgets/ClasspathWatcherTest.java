@@ -0,0 +1,94 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ClasspathWatcherTest {
+
+    private File pom;
+    private ClasspathCache cache;
+    private ClasspathWatcher watcher;
+    private final AtomicInteger resolutions = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final ClasspathCache.Resolver resolver = new ClasspathCache.Resolver() {
+        @Override
+        public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+            int resolution = resolutions.incrementAndGet();
+            if (resolution > 1) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new ResolvedClasspath(Collections.singletonList("resolution-" + resolution),
+                    new ClasspathFingerprint(Collections.singletonList(pom)));
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        pom = File.createTempFile("pom", ".xml");
+        cache = new ClasspathCache(null, new ClasspathMetrics());
+        watcher = new ClasspathWatcher(cache);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        pom.delete();
+    }
+
+    @Test
+    public void resolvesChangedPomInTheBackgroundOnceTheChangeSettled() throws Exception {
+        cache.get("pom", resolver);
+        assertEquals(0, watcher.poll());
+
+        pom.setLastModified(pom.lastModified() - 10000);
+        assertEquals(0, watcher.poll());
+        assertEquals(1, watcher.poll());
+
+        // The old classpath is served while the new one is being resolved
+        assertEquals(Collections.singletonList("resolution-1"), cache.get("pom", resolver).getElements("test"));
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getIfPresent("pom") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.singletonList("resolution-2"), cache.get("pom", resolver).getElements("test"));
+        assertEquals(2, resolutions.get());
+    }
+
+    @Test
+    public void waitsWhileThePomKeepsChanging() throws Exception {
+        cache.get("pom", resolver);
+
+        pom.setLastModified(pom.lastModified() - 10000);
+        assertEquals(0, watcher.poll());
+        pom.setLastModified(pom.lastModified() - 10000);
+        assertEquals(0, watcher.poll());
+        assertEquals(1, watcher.poll());
+    }
+
+    @Test
+    public void leavesClasspathsAddedWithoutResolverAlone() throws Exception {
+        cache.put("module", new ResolvedClasspath(Collections.singletonList("module"),
+                new ClasspathFingerprint(Collections.singletonList(pom))));
+
+        pom.setLastModified(pom.lastModified() - 10000);
+        watcher.poll();
+        assertEquals(0, watcher.poll());
+    }
+}
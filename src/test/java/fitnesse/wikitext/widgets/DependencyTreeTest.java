@@ -0,0 +1,60 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DependencyTreeTest {
+
+    private final DependencyTree tree = tree("1.0", "2.6");
+
+    @Test
+    public void printsTreeLikeMavenDependencyPlugin() {
+        assertEquals("org.example:project:jar:1.0\n"
+                + "+- org.example:lib-a:jar:1.0:compile\n"
+                + "|  +- org.example:lib-b:jar:1.0:compile\n"
+                + "|  |  \\- org.example:lib-c:jar:1.0:runtime (optional)\n"
+                + "|  \\- org.example:lib-d:jar:1.0:compile\n"
+                + "\\- commons-lang:commons-lang:jar:2.6:test\n", tree.toText());
+    }
+
+    @Test
+    public void printsTreeAsNestedJson() {
+        assertEquals("{\"artifact\":\"org.example:project:jar:1.0\",\"dependencies\":["
+                + "{\"artifact\":\"org.example:lib-a:jar\",\"version\":\"1.0\",\"scope\":\"compile\",\"optional\":false,\"dependencies\":["
+                + "{\"artifact\":\"org.example:lib-b:jar\",\"version\":\"1.0\",\"scope\":\"compile\",\"optional\":false,\"dependencies\":["
+                + "{\"artifact\":\"org.example:lib-c:jar\",\"version\":\"1.0\",\"scope\":\"runtime\",\"optional\":true,\"dependencies\":[]}]},"
+                + "{\"artifact\":\"org.example:lib-d:jar\",\"version\":\"1.0\",\"scope\":\"compile\",\"optional\":false,\"dependencies\":[]}]},"
+                + "{\"artifact\":\"commons-lang:commons-lang:jar\",\"version\":\"2.6\",\"scope\":\"test\",\"optional\":false,\"dependencies\":[]}]}",
+                tree.toJson());
+    }
+
+    @Test
+    public void listsChangedArtifacts() {
+        DependencyTree other = new DependencyTree("org.example:project:jar:1.0",
+                new String[] { "org.example:lib-a:jar", "org.example:lib-e:jar", "commons-lang:commons-lang:jar" },
+                new String[] { "1.0", "1.0", "3.0" },
+                new String[] { "compile", "compile", "test" },
+                new boolean[3], new int[] { 1, 2, 1 });
+
+        assertEquals(Arrays.asList(
+                "~ commons-lang:commons-lang:jar 2.6:test -> 3.0:test",
+                "- org.example:lib-b:jar:1.0:compile",
+                "- org.example:lib-c:jar:1.0:runtime",
+                "- org.example:lib-d:jar:1.0:compile",
+                "+ org.example:lib-e:jar:1.0:compile"), tree.diff(other));
+        assertTrue(tree.diff(tree("1.0", "2.6")).isEmpty());
+    }
+
+    private static DependencyTree tree(String version, String commonsLangVersion) {
+        return new DependencyTree("org.example:project:jar:1.0",
+                new String[] { "org.example:lib-a:jar", "org.example:lib-b:jar", "org.example:lib-c:jar",
+                        "org.example:lib-d:jar", "commons-lang:commons-lang:jar" },
+                new String[] { version, version, version, version, commonsLangVersion },
+                new String[] { "compile", "compile", "runtime", "compile", "test" },
+                new boolean[] { false, false, true, false, false },
+                new int[] { 1, 2, 3, 2, 1 });
+    }
+}
@@ -1,14 +1,36 @@
 package fitnesse.wikitext.widgets;
 
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.project.ProjectBuilder;
+import org.codehaus.plexus.PlexusContainer;
 import org.codehaus.plexus.PlexusContainerException;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
 import org.junit.Before;
 import org.junit.Test;
+import org.sonatype.aether.RepositoryCache;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 public class MavenClasspathExtractorTest {
 
@@ -16,7 +38,7 @@ public class MavenClasspathExtractorTest {
     private File pomFile;
 
     @Before
-    public void setUp() throws PlexusContainerException {
+    public void setUp() {
         pomFile = new File(MavenClasspathExtractor.class
                 .getClassLoader().getResource("MavenClasspathWidget/pom.xml").getFile());
 
@@ -37,10 +59,364 @@ public class MavenClasspathExtractorTest {
         assertTrue(path.contains("commons-lang"));
     }
 
+    @Test
+    public void timesEachStageOfAResolution() throws Exception {
+        ClasspathMetrics metrics = new ClasspathMetrics();
+        mavenClasspathExtractor = new MavenClasspathExtractor(metrics);
+
+        mavenClasspathExtractor.resolveClasspath(pomFile);
+
+        for (String stage : new String[] { ClasspathMetrics.CONTAINER, ClasspathMetrics.SETTINGS,
+                ClasspathMetrics.PROJECT_MODEL, ClasspathMetrics.DEPENDENCIES, ClasspathMetrics.CLASSPATH,
+                ClasspathMetrics.FINGERPRINT, ClasspathMetrics.RESOLUTION }) {
+            assertEquals(stage, 1, metrics.getStageCount(stage));
+        }
+        String text = metrics.toText();
+        assertTrue(text, text.contains("maven_classpath_pom_entries{pom=\"" + pomFile.getPath() + "\"} 3\n"));
+    }
+
+    @Test
+    public void offlineResolutionReportsMissingArtifacts() {
+        try {
+            mavenClasspathExtractor.resolveClasspath(pomFile, true);
+            fail("fitnesse-dep is not in the local repository");
+        } catch (MavenClasspathExtractionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("fitnesse-dep"));
+        }
+    }
+
+    @Test
+    public void offlineResolutionReportsMissingArtifactsAfterAnOnlineOne() throws MavenClasspathExtractionException {
+        mavenClasspathExtractor.resolveClasspath(pomFile);
+        offlineResolutionReportsMissingArtifacts();
+    }
+
+    @Test
+    public void ignoresMalformedUpdateInterval() throws MavenClasspathExtractionException {
+        System.setProperty(MavenClasspathExtractor.MAVEN_UPDATE_INTERVAL, "daily");
+        try {
+            assertFalse(mavenClasspathExtractor.resolveClasspath(pomFile).getElements("test").isEmpty());
+        } finally {
+            System.clearProperty(MavenClasspathExtractor.MAVEN_UPDATE_INTERVAL);
+        }
+    }
+
+    @Test
+    public void resolvesAllScopesInOneBuild() throws MavenClasspathExtractionException {
+        ResolvedClasspath classpath = mavenClasspathExtractor.resolveClasspath(pomFile);
+
+        assertFalse(classpath.getElements("compile").toString().contains("commons-lang"));
+        assertTrue(classpath.getElements("test").toString().contains("commons-lang"));
+        assertEquals(3, classpath.getElements("test").size());
+    }
+
+    @Test
+    public void lightweightResolutionGivesTheSameClasspaths() throws MavenClasspathExtractionException {
+        File reactor = new File(resource("MavenReactor/pom.xml")).getParentFile();
+        for (File pom : new File[] { pomFile, new File(reactor, "pom.xml"), new File(reactor, "module-b/pom.xml") }) {
+            ResolvedClasspath full = mavenClasspathExtractor.resolveClasspath(pom);
+            ResolvedClasspath lightweight = mavenClasspathExtractor.resolveClasspathLightweight(pom, false);
+
+            for (String scope : new String[] { "compile", "runtime", "test" }) {
+                assertEquals(pom + "@" + scope, full.getElements(scope), lightweight.getElements(scope));
+            }
+            assertEquals(full.getDependencyTree().toText(), lightweight.getDependencyTree().toText());
+            assertEquals(full.getFingerprint().getFiles(), lightweight.getFingerprint().getFiles());
+        }
+    }
+
+    @Test
+    public void lightweightResolutionSkipsTheProjectBuilderForSimplePoms() throws Exception {
+        File dir = File.createTempFile("lightweight", "");
+        dir.delete();
+        dir.mkdirs();
+        try {
+            File pom = new File(dir, "pom.xml");
+            TestFiles.write(pom, "<project><modelVersion>4.0.0</modelVersion>"
+                    + "<groupId>fitnesse</groupId><artifactId>lightweight</artifactId><version>1.0</version>"
+                    + "<properties><lang.version>2.6</lang.version><out>${project.basedir}/out</out></properties>"
+                    + "<build><outputDirectory>${out}/main</outputDirectory></build>"
+                    + "<dependencyManagement><dependencies><dependency><groupId>commons-lang</groupId>"
+                    + "<artifactId>commons-lang</artifactId><version>${lang.version}</version><scope>test</scope>"
+                    + "</dependency></dependencies></dependencyManagement>"
+                    + "<dependencies><dependency><groupId>commons-lang</groupId><artifactId>commons-lang</artifactId>"
+                    + "</dependency></dependencies></project>");
+
+            ResolvedClasspath full = mavenClasspathExtractor.resolveClasspath(pom);
+            MavenClasspathExtractor extractor = spy(new MavenClasspathExtractor(new ClasspathMetrics()));
+            ResolvedClasspath lightweight = extractor.resolveClasspathLightweight(pom, false);
+
+            verify(extractor, never()).lookup(ProjectBuilder.class);
+
+            assertEquals(full.getElements("test"), lightweight.getElements("test"));
+            assertEquals(new File(dir, "out/main").getAbsolutePath(), lightweight.getElements("compile").get(0));
+            assertTrue(lightweight.getElements("test").toString(), lightweight.getElements("test").toString().contains("commons-lang-2.6"));
+        } finally {
+            TestFiles.delete(dir);
+        }
+    }
+
+    @Test
+    public void keepsTheResolvedDependencyTree() throws MavenClasspathExtractionException {
+        DependencyTree tree = mavenClasspathExtractor.resolveClasspath(pomFile).getDependencyTree();
+
+        assertNotNull(tree);
+        String text = tree.toText();
+        assertTrue(text, text.contains("commons-lang:commons-lang:jar:"));
+        assertTrue(text, text.contains(":test\n"));
+    }
+
+    @Test
+    public void resolvesReactorModulesToTheirOutputDirectories() throws MavenClasspathExtractionException {
+        File aggregatorPomFile = new File(MavenClasspathExtractor.class
+                .getClassLoader().getResource("MavenReactor/pom.xml").getFile());
+        File moduleA = new File(aggregatorPomFile.getParentFile(), "module-a");
+        File moduleB = new File(aggregatorPomFile.getParentFile(), "module-b");
+
+        Map<File, ResolvedClasspath> modules = mavenClasspathExtractor.resolveReactor(aggregatorPomFile);
+
+        assertEquals(3, modules.size());
+        List<String> classpath = modules.get(new File(moduleB, "pom.xml").getAbsoluteFile()).getElements("compile");
+        assertTrue(classpath.toString(), classpath.contains(new File(moduleA, "target/classes").getAbsolutePath()));
+    }
+
+    @Test
+    public void offlineReactorResolutionReportsMissingArtifacts() throws IOException {
+        File dir = File.createTempFile("reactor", "");
+        dir.delete();
+        new File(dir, "app").mkdirs();
+        try {
+            File aggregatorPomFile = new File(dir, "pom.xml");
+            TestFiles.write(aggregatorPomFile, "<project><modelVersion>4.0.0</modelVersion><groupId>fitnesse</groupId>"
+                    + "<artifactId>reactor</artifactId><version>1.0</version><packaging>pom</packaging>"
+                    + "<modules><module>app</module></modules></project>");
+            TestFiles.write(new File(dir, "app/pom.xml"), pom("app", "fitnesse-dep"));
+
+            mavenClasspathExtractor.resolveReactor(aggregatorPomFile, true);
+            fail("fitnesse-dep is not in the local repository");
+        } catch (MavenClasspathExtractionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("fitnesse-dep"));
+        } finally {
+            TestFiles.delete(dir);
+        }
+    }
+
+    @Test
+    public void fingerprintCoversPomFile() throws MavenClasspathExtractionException {
+        ResolvedClasspath classpath = mavenClasspathExtractor.resolveClasspath(pomFile);
+
+        assertTrue(classpath.getFingerprint().getFiles().contains(pomFile.getAbsoluteFile()));
+        assertFalse(classpath.isStale());
+    }
+
+    @Test
+    public void reusesSettingsBetweenRequests() throws MavenClasspathExtractionException {
+        MavenExecutionRequest first = mavenClasspathExtractor.mavenConfiguration();
+        MavenExecutionRequest second = mavenClasspathExtractor.mavenConfiguration();
+
+        assertNotSame(first, second);
+        assertSame(first.getLocalRepository(), second.getLocalRepository());
+    }
+
+    @Test
+    public void rereadsSettingsWhenUserSettingsPropertyChanges() throws MavenClasspathExtractionException {
+        String original = System.getProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+        try {
+            System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, resource("user-settings.xml"));
+            assertEquals("/tmp/fitnesse-maven-classpath/user-repository",
+                    mavenClasspathExtractor.mavenConfiguration().getLocalRepository().getBasedir());
+
+            System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, resource("settings-without-local-repo.xml"));
+            assertFalse("/tmp/fitnesse-maven-classpath/user-repository".equals(
+                    mavenClasspathExtractor.mavenConfiguration().getLocalRepository().getBasedir()));
+        } finally {
+            if (original == null) {
+                System.clearProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+            } else {
+                System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, original);
+            }
+        }
+    }
+
+    @Test
+    public void reusesArtifactDescriptorsUntilAnArtifactPomChanges() throws Exception {
+        File dir = File.createTempFile("repository", "");
+        dir.delete();
+        String original = System.getProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+        try {
+            File libA = artifact(dir, "lib-a");
+            artifact(dir, "lib-b");
+            File settings = new File(dir, "settings.xml");
+            TestFiles.write(settings, "<settings><localRepository>" + new File(dir, "repository").getAbsolutePath()
+                    + "</localRepository><offline>true</offline></settings>");
+            System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, settings.getPath());
+            File project = new File(dir, "pom.xml");
+            TestFiles.write(project, pom("project", "lib-a"));
+
+            assertEquals(2, mavenClasspathExtractor.extractClasspathEntries(project, "runtime").size());
+            RepositoryCache repositoryCache = mavenClasspathExtractor.repositoryCache(false);
+
+            // Editing the project's own dependencies keeps what was read from the repository
+            TestFiles.write(project, pom("project", "lib-a", "lib-b"));
+            assertEquals(3, mavenClasspathExtractor.extractClasspathEntries(project, "runtime").size());
+            assertSame(repositoryCache, mavenClasspathExtractor.repositoryCache(false));
+
+            libA.setLastModified(libA.lastModified() - 10000);
+            assertNotSame(repositoryCache, mavenClasspathExtractor.repositoryCache(false));
+        } finally {
+            if (original == null) {
+                System.clearProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+            } else {
+                System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, original);
+            }
+            TestFiles.delete(dir);
+        }
+    }
+
+    @Test
+    public void downloadsMissingArtifactsFromRemoteRepositories() throws Exception {
+        File dir = File.createTempFile("repository", "");
+        dir.delete();
+        String original = System.getProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+        try {
+            File remote = new File(dir, "remote");
+            TestFiles.write(new File(artifact(remote, "lib-a").getParentFile(), "lib-a-1.0.jar"), "a");
+            TestFiles.write(new File(artifact(remote, "lib-b").getParentFile(), "lib-b-1.0.jar"), "b");
+            File settings = new File(dir, "settings.xml");
+            TestFiles.write(settings, "<settings><localRepository>" + new File(dir, "local").getAbsolutePath()
+                    + "</localRepository><mirrors><mirror><id>stand-in</id><mirrorOf>*</mirrorOf><url>"
+                    + new File(remote, "repository").toURI() + "</url></mirror></mirrors></settings>");
+            System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, settings.getPath());
+            File project = new File(dir, "pom.xml");
+            TestFiles.write(project, pom("project", "lib-a", "lib-b"));
+            ClasspathMetrics metrics = new ClasspathMetrics();
+            mavenClasspathExtractor = new MavenClasspathExtractor(metrics);
+
+            List<String> classpath = mavenClasspathExtractor.extractClasspathEntries(project, "runtime");
+
+            assertEquals(classpath.toString(), 3, classpath.size());
+            assertTrue(new File(dir, "local/fitnesse/lib-b/1.0/lib-b-1.0.jar").isFile());
+            assertEquals(4, metrics.getDownloads());
+            assertTrue(metrics.getStageCount(ClasspathMetrics.DOWNLOAD) > 0);
+        } finally {
+            if (original == null) {
+                System.clearProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS);
+            } else {
+                System.setProperty(MavenClasspathExtractor.MAVEN_USER_SETTINGS, original);
+            }
+            TestFiles.delete(dir);
+        }
+    }
+
+    @Test
+    public void lookupsWaitForBackgroundWarmUp() throws Exception {
+        mavenClasspathExtractor.warmUp();
+
+        assertNotNull(mavenClasspathExtractor.lookup(ProjectBuilder.class));
+    }
+
+    @Test
+    public void startsTheContainerAgainAfterAFailedStart() throws Exception {
+        mavenClasspathExtractor = new MavenClasspathExtractor() {
+            private boolean failed;
+
+            @Override
+            PlexusContainer startPlexusContainer() throws PlexusContainerException {
+                if (!failed) {
+                    failed = true;
+                    throw new PlexusContainerException("broken");
+                }
+                return super.startPlexusContainer();
+            }
+        };
+        try {
+            mavenClasspathExtractor.lookup(ProjectBuilder.class);
+            fail("Expected the first start to fail");
+        } catch (ComponentLookupException e) {
+            assertTrue(e.getCause() instanceof PlexusContainerException);
+        }
+
+        assertNotNull(mavenClasspathExtractor.lookup(ProjectBuilder.class));
+    }
+
+    @Test
+    public void resolvesIndependentPomsInParallelSessions() throws Exception {
+        mavenClasspathExtractor = new MavenClasspathExtractor(new ClasspathMetrics(), 2);
+        final File moduleA = new File(resource("MavenReactor/module-a/pom.xml"));
+        List<String> expectedA = mavenClasspathExtractor.resolveClasspath(moduleA).getElements("test");
+        List<String> expectedWidget = mavenClasspathExtractor.resolveClasspath(pomFile).getElements("test");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (int i = 0; i < 8; i++) {
+                final File pom = i % 2 == 0 ? moduleA : pomFile;
+                results.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        return mavenClasspathExtractor.resolveClasspath(pom).getElements("test");
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(i % 2 == 0 ? expectedA : expectedWidget, results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void resolutionsWaitForAFreeSession() throws Exception {
+        mavenClasspathExtractor = new MavenClasspathExtractor(new ClasspathMetrics(), 1);
+        ExtractorSession session = mavenClasspathExtractor.acquireSession();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ResolvedClasspath> classpath = executor.submit(new Callable<ResolvedClasspath>() {
+                @Override
+                public ResolvedClasspath call() throws Exception {
+                    return mavenClasspathExtractor.resolveClasspath(pomFile);
+                }
+            });
+            try {
+                classpath.get(500, TimeUnit.MILLISECONDS);
+                fail("The only session is taken");
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            mavenClasspathExtractor.releaseSession(session);
+            assertEquals(3, classpath.get(30, TimeUnit.SECONDS).getElements("test").size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test(expected = MavenClasspathExtractionException.class)
     public void failsOnNonExistingPom() throws MavenClasspathExtractionException {
         mavenClasspathExtractor.extractClasspathEntries(new File("test-pom.xml"));
     }
 
-    
+    private File artifact(File dir, String artifactId) throws IOException {
+        File artifactDir = new File(dir, "repository/fitnesse/" + artifactId + "/1.0");
+        artifactDir.mkdirs();
+        TestFiles.write(new File(artifactDir, artifactId + "-1.0.jar"), "");
+        File pom = new File(artifactDir, artifactId + "-1.0.pom");
+        TestFiles.write(pom, pom(artifactId));
+        return pom;
+    }
+
+    private String pom(String artifactId, String... dependencies) {
+        StringBuilder pom = new StringBuilder("<project><modelVersion>4.0.0</modelVersion><groupId>fitnesse</groupId><artifactId>")
+                .append(artifactId).append("</artifactId><version>1.0</version><dependencies>");
+        for (String dependency : dependencies) {
+            pom.append("<dependency><groupId>fitnesse</groupId><artifactId>").append(dependency)
+                    .append("</artifactId><version>1.0</version></dependency>");
+        }
+        return pom.append("</dependencies></project>").toString();
+    }
+
+    private String resource(String name) {
+        return MavenClasspathExtractor.class.getClassLoader().getResource(name).getFile();
+    }
 }
@@ -0,0 +1,73 @@
+package fitnesse.wikitext.widgets;
+
+import fitnesse.wiki.PathParser;
+import fitnesse.wiki.WikiPage;
+import fitnesse.wiki.WikiPageUtil;
+import fitnesse.wiki.fs.InMemoryPage;
+import fitnesse.wikitext.parser.SymbolProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MavenClasspathPreResolverTest {
+
+    private WikiPage root;
+    private File pomFile;
+
+    @Before
+    public void setUp() throws Exception {
+        System.clearProperty(MavenClasspathSymbolType.DISABLE_KEY);
+        SymbolProvider.wikiParsingProvider.add(new MavenClasspathSymbolType());
+        pomFile = new File(MavenClasspathExtractor.class
+                .getClassLoader().getResource("MavenClasspathWidget/pom.xml").getFile()).getAbsoluteFile();
+        root = InMemoryPage.makeRoot("RooT");
+    }
+
+    @Test
+    public void resolvesEachDistinctPomOnce() {
+        WikiPageUtil.addPage(root, PathParser.parse("SuiteOne"),
+                "!define POM_XML {" + pomFile.getPath() + "}\n!pomFile ${POM_XML}\n");
+        WikiPageUtil.addPage(root, PathParser.parse("SuiteTwo"), "!pomFile " + pomFile.getPath() + "@compile\n");
+        WikiPageUtil.addPage(root, PathParser.parse("SuiteThree"), "no pom here\n");
+
+        List<MavenClasspathPreResolver.Result> results = new MavenClasspathPreResolver(2).preResolve(root);
+
+        assertEquals(1, results.size());
+        assertEquals(pomFile, results.get(0).getPomFile());
+        assertTrue(results.get(0).toString(), results.get(0).isSuccess());
+    }
+
+    @Test
+    public void resolvesInTheModeThePageAsksFor() {
+        WikiPageUtil.addPage(root, PathParser.parse("SuiteOne"), "!pomFile " + pomFile.getPath() + "\n");
+        WikiPageUtil.addPage(root, PathParser.parse("SuiteTwo"), "!pomFile " + pomFile.getPath() + "@offline\n");
+
+        List<MavenClasspathPreResolver.Result> results = new MavenClasspathPreResolver(1).preResolve(root);
+
+        assertEquals(2, results.size());
+        int failures = 0;
+        for (MavenClasspathPreResolver.Result result : results) {
+            if (!result.isSuccess()) {
+                // fitnesse-dep is not in the local repository, which offline resolution reports
+                assertTrue(result.toString(), result.getError().getMessage().contains("fitnesse-dep"));
+                failures++;
+            }
+        }
+        assertEquals(1, failures);
+    }
+
+    @Test
+    public void reportsPomsThatCannotBeResolved() {
+        WikiPageUtil.addPage(root, PathParser.parse("SuiteOne"), "!pomFile no-such-pom.xml\n");
+
+        List<MavenClasspathPreResolver.Result> results = new MavenClasspathPreResolver(1).preResolve(root);
+
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).isSuccess());
+        assertNotNull(results.get(0).getError());
+    }
+}
@@ -0,0 +1,97 @@
+package fitnesse.wikitext.widgets;
+
+import fitnesse.http.MockRequest;
+import fitnesse.http.SimpleResponse;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MavenClasspathResponderTest {
+
+    @Test
+    public void servesMetricsAsPlainText() {
+        ClasspathMetrics metrics = new ClasspathMetrics();
+        metrics.cacheHit();
+        metrics.record(ClasspathMetrics.SETTINGS, metrics.start());
+
+        SimpleResponse response = (SimpleResponse) new MavenClasspathResponder(metrics)
+                .makeResponse(null, new MockRequest());
+
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getContentType(), response.getContentType().startsWith("text/plain"));
+        assertTrue(response.getContent(), response.getContent().contains("maven_classpath_cache_hits 1\n"));
+        assertTrue(response.getContent(), response.getContent().contains("maven_classpath_stage_count{stage=\"settings\"} 1\n"));
+    }
+
+    @Test
+    public void servesFullListOfACachedClasspath() {
+        MavenClasspathSymbolType symbolType = mock(MavenClasspathSymbolType.class);
+        when(symbolType.renderCachedClasspath(new File("pom.xml"), "compile")).thenReturn("<ul class='meta'></ul>");
+        when(symbolType.renderCachedClasspath(new File("other.xml"), "test")).thenReturn(null);
+        MavenClasspathResponder responder = new MavenClasspathResponder(new ClasspathMetrics(), symbolType);
+
+        SimpleResponse response = (SimpleResponse) responder.makeResponse(null,
+                classpathRequest("pom.xml", "compile"));
+        assertEquals(200, response.getStatus());
+        assertEquals("<ul class='meta'></ul>", response.getContent());
+
+        assertEquals(404, responder.makeResponse(null, classpathRequest("other.xml", null)).getStatus());
+    }
+
+    private MockRequest classpathRequest(String pomFile, String scope) {
+        MockRequest request = new MockRequest();
+        request.addInput(MavenClasspathResponder.VIEW_INPUT, MavenClasspathResponder.CLASSPATH_VIEW);
+        request.addInput(MavenClasspathResponder.POM_INPUT, pomFile);
+        if (scope != null) {
+            request.addInput(MavenClasspathResponder.SCOPE_INPUT, scope);
+        }
+        return request;
+    }
+
+    @Test
+    public void servesDependencyTreesAndTheirDifferences() {
+        ResolvedClasspath before = TestFiles.classpathWithTree(ClasspathFingerprint.NONE, "2.5");
+        ResolvedClasspath after = TestFiles.classpathWithTree(ClasspathFingerprint.NONE, "2.6");
+        MavenClasspathSymbolType symbolType = mock(MavenClasspathSymbolType.class);
+        when(symbolType.findResolvedClasspath("pom.xml")).thenReturn(after);
+        when(symbolType.findResolvedClasspath("0123456789ab")).thenReturn(before);
+        MavenClasspathResponder responder = new MavenClasspathResponder(new ClasspathMetrics(), symbolType);
+
+        SimpleResponse tree = (SimpleResponse) responder.makeResponse(null, treeRequest(MavenClasspathResponder.TREE_VIEW, "pom.xml"));
+        assertEquals(200, tree.getStatus());
+        assertEquals("fingerprint " + after.getFingerprint().getId() + "\n" + after.getDependencyTree().toText(), tree.getContent());
+
+        SimpleResponse json = (SimpleResponse) responder.makeResponse(null, treeRequest(MavenClasspathResponder.JSON_VIEW, "pom.xml"));
+        assertTrue(json.getContentType(), json.getContentType().startsWith("application/json"));
+        assertTrue(json.getContent(), json.getContent().endsWith("\"tree\":" + after.getDependencyTree().toJson() + "}"));
+
+        MockRequest diffRequest = new MockRequest();
+        diffRequest.addInput(MavenClasspathResponder.VIEW_INPUT, MavenClasspathResponder.DIFF_VIEW);
+        diffRequest.addInput(MavenClasspathResponder.FROM_INPUT, "0123456789ab");
+        diffRequest.addInput(MavenClasspathResponder.TO_INPUT, "pom.xml");
+        SimpleResponse diff = (SimpleResponse) responder.makeResponse(null, diffRequest);
+        assertEquals(200, diff.getStatus());
+        assertTrue(diff.getContent(), diff.getContent().endsWith(
+                "~ commons-lang:commons-lang:jar 2.5:test -> 2.6:test\n"));
+
+        assertEquals(404, responder.makeResponse(null, treeRequest(MavenClasspathResponder.TREE_VIEW, "other.xml")).getStatus());
+    }
+
+    private MockRequest treeRequest(String view, String pomOrFingerprint) {
+        MockRequest request = new MockRequest();
+        request.addInput(MavenClasspathResponder.VIEW_INPUT, view);
+        request.addInput(MavenClasspathResponder.POM_INPUT, pomOrFingerprint);
+        return request;
+    }
+
+    @Test
+    public void rejectsUnknownViews() {
+        MockRequest request = new MockRequest();
+        request.addInput(MavenClasspathResponder.VIEW_INPUT, "nonsense");
+
+        assertEquals(400, new MavenClasspathResponder(new ClasspathMetrics()).makeResponse(null, request).getStatus());
+    }
+}
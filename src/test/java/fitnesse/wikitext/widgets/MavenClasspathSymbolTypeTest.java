@@ -9,7 +9,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -40,13 +46,50 @@ public class MavenClasspathSymbolTypeTest {
         when(symbol.childAt(0)).thenReturn(child);
         when(translator.translate(child)).thenReturn("thePomFile");
 
-        when(mavenClasspathExtractor.extractClasspathEntries(any(File.class), isA(String.class)))
-                .thenReturn(Arrays.asList("test1", "test2"));
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("test1", "test2"), ClasspathFingerprint.NONE));
 
         assertEquals("<p class='meta'>Maven classpath [file: thePomFile, scope: test]:</p><ul class='meta'><li>test1</li><li>test2</li></ul>"
                 , mavenClasspathSymbolType.toTarget(translator, symbol));
     }
 
+    @Test
+    public void rendersOncePerResolution() throws MavenClasspathExtractionException {
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("test1", "test2"), ClasspathFingerprint.NONE));
+
+        String first = toTarget("thePomFile");
+
+        assertSame(first, toTarget("thePomFile"));
+        assertNotSame(first, toTarget("thePomFile@full"));
+    }
+
+    @Test
+    public void rendersSummaryWithLinkToFullList() throws Exception {
+        File jar = File.createTempFile("lib", ".jar");
+        jar.deleteOnExit();
+        TestFiles.write(jar, "0123456789");
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("classes", jar.getPath()), ClasspathFingerprint.NONE));
+
+        String summary = toTarget("thePomFile@summary");
+
+        assertTrue(summary, summary.startsWith("<p class='meta'>Maven classpath [file: thePomFile, scope: test]: 2 entries, 0.0 KB <a href='?responder=mavenClasspath&amp;view=classpath&amp;pom="));
+        assertFalse(summary, summary.contains("<li>"));
+        assertEquals("<ul class='meta'><li>classes</li><li>" + jar.getPath() + "</li></ul>",
+                mavenClasspathSymbolType.renderCachedClasspath(new File("thePomFile"), "test"));
+        assertNull(mavenClasspathSymbolType.renderCachedClasspath(new File("otherPomFile"), "test"));
+    }
+
+    private String toTarget(String pomFile) {
+        Symbol pomSymbol = mock(Symbol.class);
+        Symbol child = mock(Symbol.class);
+        Translator translator = mock(Translator.class);
+        when(pomSymbol.childAt(0)).thenReturn(child);
+        when(translator.translate(child)).thenReturn(pomFile);
+        return mavenClasspathSymbolType.toTarget(translator, pomSymbol);
+    }
+
     @Test
     public void translatesToJavaClasspath() throws MavenClasspathExtractionException {
         Symbol child = mock(Symbol.class);
@@ -55,12 +98,192 @@ public class MavenClasspathSymbolTypeTest {
         when(symbol.childAt(0)).thenReturn(child);
         when(translator.translate(child)).thenReturn("thePomFile");
 
-        when(mavenClasspathExtractor.extractClasspathEntries(any(File.class), isA(String.class)))
-                .thenReturn(Arrays.asList("test1", "test2"));
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("test1", "test2"), ClasspathFingerprint.NONE));
 
         assertArrayEquals(new Object[]{"test1", "test2"}, mavenClasspathSymbolType.providePaths(translator, symbol).toArray());
     }
 
+    @Test
+    public void servesCachedClasspathUntilAnInputChanges() throws Exception {
+        File pom = File.createTempFile("pom", ".xml");
+        pom.deleteOnExit();
+        TestFiles.write(pom, "<project/>");
+
+        Symbol child = mock(Symbol.class);
+        Translator translator = mock(Translator.class);
+
+        when(symbol.childAt(0)).thenReturn(child);
+        when(translator.translate(child)).thenReturn(pom.getPath());
+
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("test1"), new ClasspathFingerprint(Collections.singletonList(pom))));
+
+        mavenClasspathSymbolType.providePaths(translator, symbol);
+        mavenClasspathSymbolType.providePaths(translator, symbol);
+        verify(mavenClasspathExtractor, times(1)).resolveClasspath(any(File.class));
+
+        TestFiles.write(pom, "<project></project>");
+        mavenClasspathSymbolType.providePaths(translator, symbol);
+        verify(mavenClasspathExtractor, times(2)).resolveClasspath(any(File.class));
+    }
+
+    @Test
+    public void findsDependencyTreesOfEarlierResolutions() throws Exception {
+        File pom = File.createTempFile("pom", ".xml");
+        pom.deleteOnExit();
+        TestFiles.write(pom, "<project/>");
+        ResolvedClasspath first = TestFiles.classpathWithTree(
+                new ClasspathFingerprint(Collections.singletonList(pom)), "2.5");
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class))).thenReturn(first);
+        mavenClasspathSymbolType.getResolvedClasspath(pom);
+
+        TestFiles.write(pom, "<project></project>");
+        ResolvedClasspath second = TestFiles.classpathWithTree(
+                new ClasspathFingerprint(Collections.singletonList(pom)), "2.6");
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class))).thenReturn(second);
+        mavenClasspathSymbolType.getResolvedClasspath(pom);
+
+        assertSame(second, mavenClasspathSymbolType.findResolvedClasspath(pom.getPath()));
+        assertSame(second.getDependencyTree(), mavenClasspathSymbolType.findResolvedClasspath(second.getFingerprint().getId()).getDependencyTree());
+        assertSame(first.getDependencyTree(), mavenClasspathSymbolType.findResolvedClasspath(first.getFingerprint().getId()).getDependencyTree());
+        assertNull(mavenClasspathSymbolType.findResolvedClasspath("unknown"));
+    }
+
+    @Test
+    public void resolvesAPomOnceForAllScopes() throws Exception {
+        Map<String, List<String>> classpaths = new HashMap<String, List<String>>();
+        classpaths.put("compile", Arrays.asList("main"));
+        classpaths.put("test", Arrays.asList("main", "test"));
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class)))
+                .thenReturn(new ResolvedClasspath(classpaths, ClasspathFingerprint.NONE));
+
+        assertArrayEquals(new Object[]{"main"}, providePaths("thePomFile@compile").toArray());
+        assertArrayEquals(new Object[]{"main", "test"}, providePaths("thePomFile@test").toArray());
+        verify(mavenClasspathExtractor, times(1)).resolveClasspath(any(File.class));
+    }
+
+    @Test
+    public void resolvesAllReactorModulesInOneGo() throws Exception {
+        File moduleA = new File("module-a/pom.xml").getAbsoluteFile();
+        File moduleB = new File("module-b/pom.xml").getAbsoluteFile();
+        Map<File, ResolvedClasspath> modules = new HashMap<File, ResolvedClasspath>();
+        modules.put(moduleA, new ResolvedClasspath(Arrays.asList("a"), ClasspathFingerprint.NONE));
+        modules.put(moduleB, new ResolvedClasspath(Arrays.asList("a", "b"), ClasspathFingerprint.NONE));
+        when(mavenClasspathExtractor.resolveReactor(any(File.class), eq(false))).thenReturn(modules);
+        configureReactor();
+
+        assertArrayEquals(new Object[]{"a", "b"}, providePaths("module-b/pom.xml").toArray());
+        assertArrayEquals(new Object[]{"a"}, providePaths("module-a/pom.xml").toArray());
+        verify(mavenClasspathExtractor, times(1)).resolveReactor(new File("pom.xml").getAbsoluteFile(), false);
+        verify(mavenClasspathExtractor, never()).resolveClasspath(any(File.class));
+    }
+
+    @Test
+    public void resolvesOfflineReactorModulesOffline() throws Exception {
+        File moduleA = new File("module-a/pom.xml").getAbsoluteFile();
+        File moduleB = new File("module-b/pom.xml").getAbsoluteFile();
+        Map<File, ResolvedClasspath> online = new HashMap<File, ResolvedClasspath>();
+        online.put(moduleA, new ResolvedClasspath(Arrays.asList("a"), ClasspathFingerprint.NONE));
+        online.put(moduleB, new ResolvedClasspath(Arrays.asList("a", "b", "downloaded"), ClasspathFingerprint.NONE));
+        Map<File, ResolvedClasspath> offline = new HashMap<File, ResolvedClasspath>();
+        offline.put(moduleA, new ResolvedClasspath(Arrays.asList("a"), ClasspathFingerprint.NONE));
+        offline.put(moduleB, new ResolvedClasspath(Arrays.asList("a", "b"), ClasspathFingerprint.NONE));
+        when(mavenClasspathExtractor.resolveReactor(any(File.class), eq(false))).thenReturn(online);
+        when(mavenClasspathExtractor.resolveReactor(any(File.class), eq(true))).thenReturn(offline);
+        configureReactor();
+
+        assertArrayEquals(new Object[]{"a", "b", "downloaded"}, providePaths("module-b/pom.xml").toArray());
+        assertArrayEquals(new Object[]{"a", "b"}, providePaths("module-b/pom.xml@offline").toArray());
+        assertArrayEquals(new Object[]{"a"}, providePaths("module-a/pom.xml@offline").toArray());
+        verify(mavenClasspathExtractor, times(1)).resolveReactor(new File("pom.xml").getAbsoluteFile(), false);
+        verify(mavenClasspathExtractor, times(1)).resolveReactor(new File("pom.xml").getAbsoluteFile(), true);
+    }
+
+    @Test
+    public void resolvesLightweightReactorModulesOnTheirOwn() throws Exception {
+        when(mavenClasspathExtractor.resolveClasspathLightweight(any(File.class), eq(false)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("b"), ClasspathFingerprint.NONE));
+        configureReactor();
+
+        assertArrayEquals(new Object[]{"b"}, providePaths("module-b/pom.xml@lightweight").toArray());
+        verify(mavenClasspathExtractor, never()).resolveReactor(any(File.class), anyBoolean());
+    }
+
+    @Test
+    public void stopsTheWatcherOfTheSymbolTypeItReplaces() {
+        MavenClasspathSymbolType first = watchingSymbolType();
+        assertTrue(first.getWatcher().isRunning());
+
+        MavenClasspathSymbolType second = watchingSymbolType();
+
+        assertFalse(first.getWatcher().isRunning());
+        assertTrue(second.getWatcher().isRunning());
+        second.stopWatching();
+    }
+
+    @Test
+    public void watchesReactorModulesResolvedAlongWithAnother() throws Exception {
+        File moduleA = new File("module-a/pom.xml").getAbsoluteFile();
+        File moduleB = new File("module-b/pom.xml").getAbsoluteFile();
+        File input = File.createTempFile("module-a", ".xml");
+        input.deleteOnExit();
+        Map<File, ResolvedClasspath> modules = new HashMap<File, ResolvedClasspath>();
+        modules.put(moduleA, new ResolvedClasspath(Arrays.asList("a"),
+                new ClasspathFingerprint(Collections.singletonList(input))));
+        modules.put(moduleB, new ResolvedClasspath(Arrays.asList("a", "b"), ClasspathFingerprint.NONE));
+        when(mavenClasspathExtractor.resolveReactor(any(File.class), eq(false))).thenReturn(modules);
+        System.setProperty(MavenClasspathSymbolType.REACTOR_KEY, "pom.xml");
+        try {
+            mavenClasspathSymbolType = watchingSymbolType();
+        } finally {
+            System.clearProperty(MavenClasspathSymbolType.REACTOR_KEY);
+        }
+        try {
+            providePaths("module-b/pom.xml");
+
+            input.setLastModified(input.lastModified() - 10000);
+            ClasspathWatcher watcher = mavenClasspathSymbolType.getWatcher();
+            assertEquals(0, watcher.poll());
+            assertEquals(1, watcher.poll());
+
+            verify(mavenClasspathExtractor, timeout(5000).times(2)).resolveReactor(any(File.class), eq(false));
+        } finally {
+            mavenClasspathSymbolType.stopWatching();
+        }
+    }
+
+    private MavenClasspathSymbolType watchingSymbolType() {
+        // Long enough for the scheduled polls to stay out of the way; tests poll themselves
+        System.setProperty(MavenClasspathSymbolType.WATCH_INTERVAL_KEY, "3600");
+        try {
+            MavenClasspathSymbolType symbolType = new MavenClasspathSymbolType();
+            symbolType.setMavenClasspathExtractor(mavenClasspathExtractor);
+            return symbolType;
+        } finally {
+            System.clearProperty(MavenClasspathSymbolType.WATCH_INTERVAL_KEY);
+        }
+    }
+
+    private void configureReactor() {
+        System.setProperty(MavenClasspathSymbolType.REACTOR_KEY, "pom.xml");
+        try {
+            mavenClasspathSymbolType = new MavenClasspathSymbolType();
+            mavenClasspathSymbolType.setMavenClasspathExtractor(mavenClasspathExtractor);
+        } finally {
+            System.clearProperty(MavenClasspathSymbolType.REACTOR_KEY);
+        }
+    }
+
+    private Collection<String> providePaths(String pomFile) {
+        Symbol pomSymbol = mock(Symbol.class);
+        Symbol child = mock(Symbol.class);
+        Translator translator = mock(Translator.class);
+        when(pomSymbol.childAt(0)).thenReturn(child);
+        when(translator.translate(child)).thenReturn(pomFile);
+        return mavenClasspathSymbolType.providePaths(translator, pomSymbol);
+    }
+
     @Test
     public void loadPomXml() throws Exception {
         configureMavenClasspathSymbolType();
@@ -82,6 +305,93 @@ public class MavenClasspathSymbolTypeTest {
         assertTrue(html, html.contains("<p class='meta'>Maven classpath [file: pom.xml, scope: test]:</p><ul class='meta'><li>"));
     }
 
+    @Test
+    public void parsesScopeAndOfflineOption() {
+        MavenClasspathSymbolType.ParsedSymbol parsed = new MavenClasspathSymbolType.ParsedSymbol("pom.xml@compile@offline");
+        assertEquals(new File("pom.xml"), parsed.getPomFile());
+        assertEquals("compile", parsed.getScope());
+        assertTrue(parsed.isOffline());
+
+        parsed = new MavenClasspathSymbolType.ParsedSymbol("pom.xml@offline");
+        assertEquals("test", parsed.getScope());
+        assertTrue(parsed.isOffline());
+
+        assertFalse(new MavenClasspathSymbolType.ParsedSymbol("pom.xml@runtime").isOffline());
+
+        parsed = new MavenClasspathSymbolType.ParsedSymbol("pom.xml@summary@compile");
+        assertEquals("compile", parsed.getScope());
+        assertTrue(parsed.isSummary(false));
+        assertFalse(new MavenClasspathSymbolType.ParsedSymbol("pom.xml@full").isSummary(true));
+        assertTrue(new MavenClasspathSymbolType.ParsedSymbol("pom.xml").isSummary(true));
+    }
+
+    @Test
+    public void resolvesOfflineWhenAsked() throws MavenClasspathExtractionException {
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class), eq(true)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("local.jar"), ClasspathFingerprint.NONE));
+
+        assertEquals(Arrays.asList("local.jar"), providePaths("pom.xml@offline"));
+        verify(mavenClasspathExtractor, never()).resolveClasspath(any(File.class));
+    }
+
+    @Test
+    public void doesNotServeRegularResolutionsOffline() throws MavenClasspathExtractionException {
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("remote.jar"), ClasspathFingerprint.NONE));
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class), eq(true)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("local.jar"), ClasspathFingerprint.NONE));
+
+        assertEquals(Arrays.asList("remote.jar"), providePaths("pom.xml"));
+        assertEquals(Arrays.asList("local.jar"), providePaths("pom.xml@offline"));
+        assertEquals(Arrays.asList("remote.jar"), providePaths("pom.xml"));
+        verify(mavenClasspathExtractor, times(1)).resolveClasspath(any(File.class), eq(true));
+    }
+
+    @Test
+    public void resolvesLightweightWhenAsked() throws MavenClasspathExtractionException {
+        when(mavenClasspathExtractor.resolveClasspathLightweight(any(File.class), eq(false)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("direct.jar"), ClasspathFingerprint.NONE));
+
+        assertEquals(Arrays.asList("direct.jar"), providePaths("pom.xml@compile@lightweight"));
+        assertTrue(new MavenClasspathSymbolType.ParsedSymbol("pom.xml@lightweight").isLightweight());
+        assertEquals("test", new MavenClasspathSymbolType.ParsedSymbol("pom.xml@lightweight").getScope());
+        verify(mavenClasspathExtractor, never()).resolveClasspath(any(File.class));
+    }
+
+    @Test
+    public void keepsLightweightResolutionsApart() throws MavenClasspathExtractionException {
+        when(mavenClasspathExtractor.resolveClasspath(any(File.class)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("full.jar"), ClasspathFingerprint.NONE));
+        when(mavenClasspathExtractor.resolveClasspathLightweight(any(File.class), eq(false)))
+                .thenReturn(new ResolvedClasspath(Arrays.asList("direct.jar"), ClasspathFingerprint.NONE));
+
+        assertEquals(Arrays.asList("full.jar"), providePaths("pom.xml"));
+        assertEquals(Arrays.asList("direct.jar"), providePaths("pom.xml@lightweight"));
+        assertEquals(Arrays.asList("full.jar"), providePaths("pom.xml"));
+    }
+
+    @Test
+    public void readsAnUpToDateManifestInsteadOfResolving() throws Exception {
+        File pom = File.createTempFile("pom", ".xml");
+        try {
+            TestFiles.write(pom, "<project/>");
+            ClasspathManifest.write(pom, new ResolvedClasspath(Arrays.asList("manifest.jar"),
+                    new ClasspathFingerprint(Collections.singletonList(pom))));
+
+            assertEquals(Arrays.asList("manifest.jar"), providePaths(pom.getPath()));
+            verifyZeroInteractions(mavenClasspathExtractor);
+
+            TestFiles.write(pom, "<project><version>2</version></project>");
+            when(mavenClasspathExtractor.resolveClasspath(pom.getAbsoluteFile()))
+                    .thenReturn(new ResolvedClasspath(Arrays.asList("resolved.jar"), ClasspathFingerprint.NONE));
+
+            assertEquals(Arrays.asList("resolved.jar"), providePaths(pom.getPath()));
+        } finally {
+            pom.delete();
+            ClasspathManifest.manifestFile(pom).delete();
+        }
+    }
+
     @Test
     public void canBeDisabled() throws Exception {
         System.setProperty(MavenClasspathSymbolType.DISABLE_KEY, "TRUE");
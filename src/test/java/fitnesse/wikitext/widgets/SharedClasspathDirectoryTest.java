@@ -0,0 +1,195 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class SharedClasspathDirectoryTest {
+
+    private File dir;
+    private File counter;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("shared", "");
+        dir.delete();
+        dir.mkdirs();
+        counter = new File(dir, "resolutions.txt");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void oneOfSeveralJvmsResolves() throws Exception {
+        final File shared = new File(dir, "shared");
+        List<Process> processes = new ArrayList<Process>();
+        for (int i = 0; i < 2; i++) {
+            processes.add(new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-cp", System.getProperty("surefire.test.class.path", System.getProperty("java.class.path")),
+                    SharedClasspathDirectoryTest.class.getName(), shared.getPath(), "pom.xml", counter.getPath())
+                    .redirectErrorStream(true).start());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<List<String>>> local = new ArrayList<Future<List<String>>>();
+        for (int i = 0; i < 2; i++) {
+            local.add(executor.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return resolve(shared.getPath(), "pom.xml", counter.getPath());
+                }
+            }));
+        }
+
+        for (Process process : processes) {
+            String output = read(process);
+            assertEquals(output, 0, process.waitFor());
+            assertTrue(output, output.contains("[target/classes]"));
+        }
+        for (Future<List<String>> classpath : local) {
+            assertEquals(Collections.singletonList("target/classes"), classpath.get());
+        }
+        executor.shutdown();
+        assertEquals(1, lines(counter));
+    }
+
+    @Test
+    public void resolvesAgainOnceTheSharedClasspathIsOutdated() throws Exception {
+        final File pom = new File(dir, "pom.xml");
+        TestFiles.write(pom, "<project/>");
+        SharedClasspathDirectory shared = new SharedClasspathDirectory(new File(dir, "shared"));
+        ClasspathCache.Resolver resolver = new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+                count(counter.getPath());
+                return new ResolvedClasspath(Arrays.asList("classes"),
+                        new ClasspathFingerprint(Collections.singletonList(pom)));
+            }
+        };
+
+        shared.resolve("pom.xml", resolver);
+        new SharedClasspathDirectory(new File(dir, "shared")).resolve("pom.xml", resolver);
+        assertEquals(1, lines(counter));
+
+        TestFiles.write(pom, "<project></project>");
+        shared.resolve("pom.xml", resolver);
+        assertEquals(2, lines(counter));
+    }
+
+    @Test
+    public void usesASharedClasspathWhoseInputsOnlyHaveADifferentTimestampHere() throws Exception {
+        final File pom = new File(dir, "pom.xml");
+        TestFiles.write(pom, "<project/>");
+        SharedClasspathDirectory shared = new SharedClasspathDirectory(new File(dir, "shared"));
+        ClasspathCache.Resolver resolver = new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+                count(counter.getPath());
+                return new ResolvedClasspath(Arrays.asList("classes"),
+                        new ClasspathFingerprint(Collections.singletonList(pom)));
+            }
+        };
+        shared.resolve("pom.xml", resolver);
+
+        // Like a checkout of the same POM on another server
+        pom.setLastModified(pom.lastModified() - 60000);
+        ResolvedClasspath classpath = shared.resolve("pom.xml", resolver);
+
+        assertEquals(1, lines(counter));
+        assertEquals(Arrays.asList("classes"), classpath.getElements("test"));
+        assertFalse(classpath.isStale());
+    }
+
+    @Test
+    public void resolvesAgainIfSharedJarsAreMissingHere() throws Exception {
+        SharedClasspathDirectory shared = new SharedClasspathDirectory(new File(dir, "shared"));
+        shared.put("pom.xml", new ResolvedClasspath(Arrays.asList(new File(dir, "missing.jar").getPath()),
+                ClasspathFingerprint.NONE));
+
+        assertEquals(Collections.singletonList("target/classes"),
+                resolve(shared.getDirectory().getPath(), "pom.xml", counter.getPath()));
+        assertEquals(1, lines(counter));
+    }
+
+    /**
+     * Entry point of the other JVMs in {@link #oneOfSeveralJvmsResolves()}.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println(resolve(args[0], args[1], args[2]));
+    }
+
+    private static List<String> resolve(String shared, String key, final String counter) throws Exception {
+        return new SharedClasspathDirectory(shared).resolve(key, new ClasspathCache.Resolver() {
+            @Override
+            public ResolvedClasspath resolve() throws MavenClasspathExtractionException {
+                count(counter);
+                try {
+                    // Long enough for the others to ask for the same classpath
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ResolvedClasspath(Collections.singletonList("target/classes"), ClasspathFingerprint.NONE);
+            }
+        }).getElements("test");
+    }
+
+    private static void count(String counter) {
+        try {
+            FileOutputStream out = new FileOutputStream(counter, true);
+            try {
+                out.write("resolved\n".getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int lines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            int lines = 0;
+            while (reader.readLine() != null) {
+                lines++;
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private String read(Process process) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        try {
+            StringBuilder output = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+            }
+            return output.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
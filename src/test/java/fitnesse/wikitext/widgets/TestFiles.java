@@ -0,0 +1,47 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * File helpers and fixtures shared by the tests.
+ */
+final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    static void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Delete a file, or a directory with everything in it.
+     */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * A classpath with commons-lang as its only, test scoped, dependency.
+     */
+    static ResolvedClasspath classpathWithTree(ClasspathFingerprint fingerprint, String commonsLangVersion) {
+        return new ResolvedClasspath(Collections.singletonMap("test", Collections.singletonList("commons-lang.jar")),
+                fingerprint, new DependencyTree("org.example:project:jar:1.0",
+                new String[] { "commons-lang:commons-lang:jar" }, new String[] { commonsLangVersion },
+                new String[] { "test" }, new boolean[1], new int[] { 1 }));
+    }
+}